@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Random;
+
+/** Measures ancestry and "commits in A not in B" queries with reachability
+ *  bitmaps. Writes a commit-graph of COMMITS synthetic commits into a scratch
+ *  repository, made of LANES lines of development that merge into each other
+ *  now and then, builds the bitmaps, and times QUERIES random queries of each
+ *  kind against a walk of the whole graph, checking that both agree.
+ *
+ *  Usage: java gitlet.BitmapBenchmark [COMMITS [LANES [QUERIES]]]
+ *
+ *  @author fqcd
+ */
+public class BitmapBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int numCommits = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int lanes = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        File dir = Files.createTempDirectory("gitlet-bitmap").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.GITLET_DIR.mkdirs()) {
+            throw new IOException("cannot create " + Repository.GITLET_DIR);
+        }
+
+        Random random = new Random(61);
+        int[] tips = new int[lanes];
+        int[] generations = new int[numCommits];
+        byte[] raw = new byte[Utils.UID_LENGTH / 2];
+        CommitGraph.writeHeader(CommitGraph.GRAPH_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(CommitGraph.GRAPH_FILE, true)))) {
+            for (int i = 0; i < numCommits; i++) {
+                int lane = random.nextInt(lanes);
+                int p1 = i == 0 ? CommitGraph.NONE : tips[lane];
+                int p2 = CommitGraph.NONE;
+                if (i > 0 && random.nextInt(20) == 0) {
+                    int other = tips[random.nextInt(lanes)];
+                    p2 = other != p1 ? other : CommitGraph.NONE;
+                }
+                int gen = 1;
+                if (p1 != CommitGraph.NONE) {
+                    gen = Math.max(gen, generations[p1] + 1);
+                }
+                if (p2 != CommitGraph.NONE) {
+                    gen = Math.max(gen, generations[p2] + 1);
+                }
+                generations[i] = gen;
+                tips[lane] = i;
+                random.nextBytes(raw);
+                CommitGraph.writeRecord(out, Pack.bytesToHex(raw), p1, p2, gen, i);
+            }
+        }
+
+        try {
+            CommitGraph graph = CommitGraph.read();
+            long start = System.nanoTime();
+            CommitBitmaps bitmaps = CommitBitmaps.read(graph);
+            System.out.printf("commits: %d, lanes: %d, bitmaps built in %.1f ms, %.1f KB%n",
+                    numCommits, lanes, (System.nanoTime() - start) / 1e6,
+                    CommitBitmaps.BITMAP_FILE.length() / 1024.0);
+
+            int[][] pairs = new int[queries][2];
+            for (int[] pair : pairs) {
+                pair[0] = random.nextInt(numCommits);
+                pair[1] = random.nextInt(numCommits);
+            }
+
+            long bitmapAncestry = 0;
+            long walkAncestry = 0;
+            int ancestors = 0;
+            for (int[] pair : pairs) {
+                start = System.nanoTime();
+                boolean fast = bitmaps.isAncestor(pair[0], pair[1]);
+                bitmapAncestry += System.nanoTime() - start;
+                start = System.nanoTime();
+                boolean slow = walk(graph, pair[1]).get(pair[0]);
+                walkAncestry += System.nanoTime() - start;
+                if (fast != slow) {
+                    throw new IllegalStateException("is-ancestor disagrees at " + pair[0]);
+                }
+                ancestors += fast ? 1 : 0;
+            }
+
+            long bitmapRevList = 0;
+            long walkRevList = 0;
+            for (int[] pair : pairs) {
+                start = System.nanoTime();
+                long[] in = bitmaps.reach(pair[0]);
+                long[] out = bitmaps.reach(pair[1]);
+                for (int i = 0; i < in.length && i < out.length; i++) {
+                    in[i] &= ~out[i];
+                }
+                bitmapRevList += System.nanoTime() - start;
+                start = System.nanoTime();
+                BitSet expected = walk(graph, pair[0]);
+                expected.andNot(walk(graph, pair[1]));
+                walkRevList += System.nanoTime() - start;
+                for (int pos = 0; pos <= pair[0]; pos++) {
+                    if (CommitBitmaps.contains(in, pos) != expected.get(pos)) {
+                        throw new IllegalStateException("rev-list disagrees at " + pos);
+                    }
+                }
+            }
+
+            System.out.printf("%d of %d pairs are ancestors%n", ancestors, queries);
+            System.out.printf("%14s %14s %14s%n", "query", "bitmap us", "walk us");
+            System.out.printf("%14s %14.1f %14.1f%n", "is-ancestor",
+                    bitmapAncestry / 1e3 / queries, walkAncestry / 1e3 / queries);
+            System.out.printf("%14s %14.1f %14.1f%n", "rev-list A ^B",
+                    bitmapRevList / 1e3 / queries, walkRevList / 1e3 / queries);
+        } finally {
+            CommitBitmaps.BITMAP_FILE.delete();
+            CommitIndex.INDEX_FILE.delete();
+            CommitGraph.GRAPH_FILE.delete();
+            Repository.GITLET_DIR.delete();
+            dir.delete();
+        }
+    }
+
+    /** Returns the positions of the commits reachable from the commit at POS,
+     *  walking every parent. */
+    private static BitSet walk(CommitGraph graph, int pos) {
+        BitSet visited = new BitSet(pos + 1);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(pos);
+        visited.set(pos);
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            for (int parent : new int[] {graph.parent1(p), graph.parent2(p)}) {
+                if (parent != CommitGraph.NONE && !visited.get(parent)) {
+                    visited.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Measures content-defined chunking on a large binary file edited a little
+ *  between versions. The first version is the first SIZE_MB megabytes of the
+ *  module image of the running JDK (real class files and resources), or
+ *  random bytes if it cannot be read, and each of the VERSIONS versions makes
+ *  EDITS random insertions, deletions and overwrites of up to 4 KB in the one
+ *  before, so that the contents after an edit shift.
+ *
+ *  Reports the throughput of cutting and hashing the chunks in memory, the
+ *  dedup ratio (the total size of the versions over the size of their
+ *  distinct chunks), and, in a scratch repository, the bytes stored and the
+ *  throughput of writing the versions and of reading them back, with chunking
+ *  and with every blob stored whole (both without deltas).
+ *
+ *  Usage: java gitlet.ChunkBenchmark [SIZE_MB [VERSIONS [EDITS]]]
+ *
+ *  @author fqcd
+ */
+public class ChunkBenchmark {
+    /** The largest edit, in bytes. */
+    private static final int EDIT_SIZE = 4096;
+
+    public static void main(String[] args) throws IOException {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int edits = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        Random random = new Random(61);
+        byte[] contents = dataset(sizeMb << 20, random);
+        byte[][] all = new byte[versions][];
+        all[0] = contents;
+        for (int v = 1; v < versions; v++) {
+            all[v] = edit(all[v - 1], edits, random);
+        }
+
+        long total = 0;
+        long start = System.nanoTime();
+        Map<String, Integer> distinct = new HashMap<>();
+        int chunks = 0;
+        for (byte[] version : all) {
+            for (int pos = 0; pos < version.length; ) {
+                int len = Chunker.cut(version, pos, version.length - pos);
+                MessageDigest md = Utils.newSha1();
+                md.update(version, pos, len);
+                distinct.put(Utils.hex(md), len);
+                pos += len;
+                chunks++;
+            }
+            total += version.length;
+        }
+        double chunkSeconds = (System.nanoTime() - start) / 1e9;
+        long unique = 0;
+        for (int len : distinct.values()) {
+            unique += len;
+        }
+
+        System.out.printf("%d versions of %d MB, %d edits per version%n", versions, sizeMb, edits);
+        System.out.printf("chunk and hash: %.1f MB/s, %d chunks of %.1f KB on average, %d distinct%n",
+                total / 1048576.0 / chunkSeconds, chunks, total / 1024.0 / chunks, distinct.size());
+        System.out.printf("dedup ratio: %.2f (%.1f MB in %.1f MB of distinct chunks)%n",
+                (double) total / unique, total / 1048576.0, unique / 1048576.0);
+
+        File dir = Files.createTempDirectory("gitlet-chunk").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.BLOB_DIR.mkdirs() || !Repository.CHUNK_DIR.mkdirs()) {
+            throw new IOException("cannot create " + Repository.OBJECT_DIR);
+        }
+        try {
+            Config.set(Config.FORMAT, Integer.toString(Config.CUR_FORMAT));
+            Config.set(Config.DELTA_DEPTH, "0");
+            System.out.printf("%10s %14s %14s %14s%n", "storage", "stored MB", "write MB/s", "read MB/s");
+            store("chunked", Integer.toString(1 << 20), all, total);
+            store("whole", "0", all, total);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Store the versions ALL, of TOTAL bytes in all, as the file NAME.bin in
+     *  the scratch repository with chunk.threshold THRESHOLD, read them back,
+     *  and print one row of results as NAME. */
+    private static void store(String name, String threshold, byte[][] all, long total)
+            throws IOException {
+        Config.set(Config.CHUNK_THRESHOLD, threshold);
+        File work = new File(Repository.CWD, name + ".bin");
+        try {
+            String[] ids = new String[all.length];
+            long write = 0;
+            for (int v = 0; v < all.length; v++) {
+                Files.write(work.toPath(), all[v]);
+                long start = System.nanoTime();
+                ids[v] = Utils.saveBlob(work, work.getName(), null);
+                write += System.nanoTime() - start;
+            }
+
+            long read = 0;
+            byte[] buf = new byte[Utils.BUFFER_SIZE];
+            for (int v = 0; v < all.length; v++) {
+                long start = System.nanoTime();
+                MessageDigest md = Utils.newSha1();
+                try (InputStream in = Utils.openObject(ids[v], Repository.BLOB_DIR)) {
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        md.update(buf, 0, n);
+                    }
+                }
+                read += System.nanoTime() - start;
+                if (!Arrays.equals(md.digest(), Utils.newSha1().digest(all[v]))) {
+                    throw new IllegalStateException("read back wrong contents of version " + v);
+                }
+            }
+
+            long stored = Repository.CHUNK_DIR.exists() ? size(Repository.CHUNK_DIR) : 0;
+            for (String id : new HashSet<>(Arrays.asList(ids))) {
+                stored += Utils.getObjectFile(id, Repository.BLOB_DIR).length();
+            }
+            System.out.printf("%10s %14.1f %14.1f %14.1f%n", name, stored / 1048576.0,
+                    total / 1048576.0 / (write / 1e9), total / 1048576.0 / (read / 1e9));
+        } finally {
+            work.delete();
+            delete(Repository.CHUNK_DIR);
+        }
+    }
+
+    /** Returns SIZE bytes of the JDK module image, or of random bytes. */
+    private static byte[] dataset(int size, Random random) throws IOException {
+        Path modules = Paths.get(System.getProperty("java.home"), "lib", "modules");
+        byte[] res = new byte[size];
+        int n = 0;
+        if (Files.isReadable(modules)) {
+            try (InputStream in = Files.newInputStream(modules)) {
+                n = in.readNBytes(res, 0, size);
+            }
+        }
+        if (n < size) {
+            byte[] rest = new byte[size - n];
+            random.nextBytes(rest);
+            System.arraycopy(rest, 0, res, n, rest.length);
+        }
+        return res;
+    }
+
+    /** Returns a copy of CONTENTS with EDITS random insertions, deletions and
+     *  overwrites. */
+    private static byte[] edit(byte[] contents, int edits, Random random) {
+        byte[] res = contents;
+        for (int e = 0; e < edits; e++) {
+            int at = random.nextInt(res.length - EDIT_SIZE);
+            int len = 1 + random.nextInt(EDIT_SIZE);
+            byte[] bytes = new byte[len];
+            random.nextBytes(bytes);
+            byte[] next;
+            switch (random.nextInt(3)) {
+                case 0:
+                    next = new byte[res.length + len];
+                    System.arraycopy(res, 0, next, 0, at);
+                    System.arraycopy(bytes, 0, next, at, len);
+                    System.arraycopy(res, at, next, at + len, res.length - at);
+                    break;
+                case 1:
+                    next = new byte[res.length - len];
+                    System.arraycopy(res, 0, next, 0, at);
+                    System.arraycopy(res, at + len, next, at, res.length - at - len);
+                    break;
+                default:
+                    next = res.clone();
+                    System.arraycopy(bytes, 0, next, at, len);
+                    break;
+            }
+            res = next;
+        }
+        return res;
+    }
+
+    /** Returns the total size of the files under DIR. */
+    private static long size(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+        }
+    }
+
+    /** Delete DIR and everything in it. */
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Compares the raw object format with deflated objects.
+ *  For every setting, each file of a corpus of source files is written as an
+ *  object file and read back, reporting the bytes written and the mean read
+ *  latency per object.
+ *
+ *  Usage: java gitlet.CompressionBenchmark [CORPUS_DIR [ROUNDS]]
+ *
+ *  @author fqcd
+ */
+public class CompressionBenchmark {
+
+    /** Settings under test: {object format, deflate level}. */
+    private static final int[][] SETTINGS = {{0, 0}, {1, 1}, {1, 6}, {1, 9}};
+
+    public static void main(String[] args) throws IOException {
+        File corpusDir = new File(args.length > 0 ? args[0] : "../gitlet");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        List<byte[]> corpus = new ArrayList<>();
+        long corpusBytes = 0;
+        collect(corpusDir, corpus);
+        for (byte[] contents : corpus) {
+            corpusBytes += contents.length;
+        }
+        if (corpus.isEmpty()) {
+            System.out.println("No files in " + corpusDir);
+            return;
+        }
+
+        System.out.printf("corpus: %d files, %d bytes, %d rounds%n",
+                corpus.size(), corpusBytes, rounds);
+        System.out.printf("%-10s %12s %8s %14s %14s%n",
+                "setting", "bytes", "ratio", "write us/obj", "read us/obj");
+
+        File tmp = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            for (int[] setting : SETTINGS) {
+                run(tmp, corpus, corpusBytes, rounds, setting[0], setting[1]);
+            }
+        } finally {
+            for (File f : tmp.listFiles()) {
+                f.delete();
+            }
+            tmp.delete();
+        }
+    }
+
+    /** Write and read CORPUS ROUNDS times under FORMAT and LEVEL, in DIR. */
+    private static void run(File dir, List<byte[]> corpus, long corpusBytes,
+                            int rounds, int format, int level) throws IOException {
+        long written = 0;
+        long writeNanos = 0;
+        long readNanos = 0;
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < corpus.size(); i++) {
+                File f = new File(dir, Integer.toString(i));
+                try (OutputStream out =
+                         new BufferedOutputStream(Files.newOutputStream(f.toPath()))) {
+                    Utils.encodeObject(out, corpus.get(i), format, level);
+                }
+            }
+            writeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < corpus.size(); i++) {
+                File f = new File(dir, Integer.toString(i));
+                try (InputStream in = Utils.decodeObject(
+                        Files.newInputStream(f.toPath()), format)) {
+                    sink += in.readAllBytes().length;
+                }
+            }
+            readNanos += System.nanoTime() - start;
+        }
+        for (int i = 0; i < corpus.size(); i++) {
+            written += new File(dir, Integer.toString(i)).length();
+        }
+        if (sink != corpusBytes * rounds) {
+            throw new IllegalStateException("round trip lost bytes");
+        }
+
+        long ops = (long) rounds * corpus.size();
+        String name = format == 0 ? "raw" : "deflate-" + level;
+        System.out.printf("%-10s %12d %8.3f %14.1f %14.1f%n", name, written,
+                (double) written / corpusBytes,
+                writeNanos / 1000.0 / ops, readNanos / 1000.0 / ops);
+    }
+
+    /** Add the contents of all plain files under DIR to RES. */
+    private static void collect(File dir, List<byte[]> res) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collect(f, res);
+            } else if (f.isFile() && !f.getName().endsWith(".class")) {
+                res.add(Files.readAllBytes(f.toPath()));
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Measures delta blob storage on an edit-heavy history.
+ *  Writes VERSIONS versions of one text file of SIZE_MB megabytes into a
+ *  scratch repository, each version changing EDITS random lines of the one
+ *  before, once with deltas (each version against the one before) and once
+ *  with every blob stored whole. Reports the bytes stored either way against
+ *  the total size of the versions, and the time to read back a random
+ *  version with the base cache empty (as for a single command) and warm.
+ *
+ *  Usage: java gitlet.DeltaBenchmark [SIZE_MB [VERSIONS [EDITS [READS]]]]
+ *
+ *  @author fqcd
+ */
+public class DeltaBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int edits = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int reads = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        File dir = Files.createTempDirectory("gitlet-delta").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.BLOB_DIR.mkdirs()) {
+            throw new IOException("cannot create " + Repository.BLOB_DIR);
+        }
+        Config.set(Config.FORMAT, Integer.toString(Config.CUR_FORMAT));
+        Config.set(Config.CHUNK_THRESHOLD, "0");
+
+        Random random = new Random(61);
+        List<String> lines = new ArrayList<>();
+        long size = 0;
+        while (size < (long) sizeMb << 20) {
+            String line = randomLine(random);
+            lines.add(line);
+            size += line.length();
+        }
+
+        File work = new File(dir, "file.txt");
+        String[] deltaIds = new String[versions];
+        String[] wholeIds = new String[versions];
+        byte[][] sums = new byte[versions][];
+        long total = 0;
+        long deltaWrite = 0;
+        long wholeWrite = 0;
+        try {
+            for (int v = 0; v < versions; v++) {
+                for (int e = 0; e < edits; e++) {
+                    lines.set(random.nextInt(lines.size()), randomLine(random));
+                }
+                byte[] contents = String.join("", lines).getBytes(StandardCharsets.UTF_8);
+                Files.write(work.toPath(), contents);
+                total += contents.length;
+                sums[v] = Utils.newSha1().digest(contents);
+
+                Config.set(Config.DELTA_DEPTH, "10");
+                long start = System.nanoTime();
+                deltaIds[v] = Utils.saveBlob(work, "delta", v == 0 ? null : deltaIds[v - 1]);
+                deltaWrite += System.nanoTime() - start;
+
+                Config.set(Config.DELTA_DEPTH, "0");
+                start = System.nanoTime();
+                wholeIds[v] = Utils.saveBlob(work, "whole", v == 0 ? null : wholeIds[v - 1]);
+                wholeWrite += System.nanoTime() - start;
+            }
+
+            long deltaBytes = storedBytes(deltaIds);
+            long wholeBytes = storedBytes(wholeIds);
+            System.out.printf("%d versions of %d MB, %d lines edited per version%n",
+                    versions, sizeMb, edits);
+            System.out.printf("%10s %14s %10s %14s %14s %14s%n", "storage", "stored MB",
+                    "ratio", "write ms", "cold read ms", "warm read ms");
+            report("whole", wholeIds, sums, wholeBytes, total, wholeWrite, reads, random);
+            report("delta", deltaIds, sums, deltaBytes, total, deltaWrite, reads, random);
+        } finally {
+            for (String id : deltaIds) {
+                deleteObject(id);
+            }
+            for (String id : wholeIds) {
+                deleteObject(id);
+            }
+            work.delete();
+            Config.CONFIG.delete();
+            Repository.BLOB_DIR.delete();
+            Repository.OBJECT_DIR.delete();
+            Repository.GITLET_DIR.delete();
+            dir.delete();
+        }
+    }
+
+    /** Print one row of results for the blobs IDS, checking each version read
+     *  against its digest in SUMS. */
+    private static void report(String name, String[] ids, byte[][] sums, long stored, long total,
+                               long write, int reads, Random random) {
+        long cold = 0;
+        long warm = 0;
+        for (int r = 0; r < reads; r++) {
+            int v = random.nextInt(ids.length);
+            Delta.clearCache();
+            long start = System.nanoTime();
+            byte[] contents = Utils.readBlob(ids[v]);
+            cold += System.nanoTime() - start;
+            check(contents, sums[v]);
+
+            v = Math.max(0, Math.min(ids.length - 1, v + random.nextInt(5) - 2));
+            start = System.nanoTime();
+            contents = Utils.readBlob(ids[v]);
+            warm += System.nanoTime() - start;
+            check(contents, sums[v]);
+        }
+        System.out.printf("%10s %14.1f %9.1f%% %14.1f %14.2f %14.2f%n", name, stored / 1048576.0,
+                100.0 * stored / total, write / 1e6 / ids.length, cold / 1e6 / reads, warm / 1e6 / reads);
+    }
+
+    private static void check(byte[] contents, byte[] sum) {
+        if (!Arrays.equals(Utils.newSha1().digest(contents), sum)) {
+            throw new IllegalStateException("read back wrong contents");
+        }
+    }
+
+    private static long storedBytes(String[] ids) {
+        long res = 0;
+        for (String id : ids) {
+            res += Utils.getObjectFile(id, Repository.BLOB_DIR).length();
+        }
+        return res;
+    }
+
+    private static void deleteObject(String id) {
+        if (id != null) {
+            File f = Utils.getObjectFile(id, Repository.BLOB_DIR);
+            if (f != null) {
+                f.delete();
+                f.getParentFile().delete();
+            }
+        }
+    }
+
+    /** Returns a line of source-like text. */
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        int indent = random.nextInt(4) * 4;
+        for (int i = 0; i < indent; i++) {
+            line.append(' ');
+        }
+        int words = 1 + random.nextInt(10);
+        for (int w = 0; w < words; w++) {
+            line.append(w == 0 ? "" : " ").append(Integer.toString(random.nextInt(5000), 36));
+        }
+        return line.append('\n').toString();
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Measures the line diff and the three-way line merge on large files.
+ *  For each file size from MIN_LINES lines, doubling up to MAX_LINES, makes a
+ *  base file of random lines and two versions of it, each with EDITS random
+ *  edits (lines replaced, inserted or deleted) at different places, and times
+ *  Diff.diff from the base to one version and Diff.merge of both versions,
+ *  reporting the best of ROUNDS runs. With a fixed number of edits the time
+ *  per line should stay flat as the files grow. Each diff is checked by
+ *  applying it to the base, and each merge by its number of conflicts. A last
+ *  row diffs two unrelated files of MIN_LINES lines, the worst case.
+ *
+ *  Usage: java gitlet.DiffBenchmark [MIN_LINES [MAX_LINES [EDITS [ROUNDS]]]]
+ *
+ *  @author fqcd
+ */
+public class DiffBenchmark {
+
+    public static void main(String[] args) {
+        int minLines = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxLines = args.length > 1 ? Integer.parseInt(args[1]) : 1_600_000;
+        int edits = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        Random random = new Random(61);
+        System.out.printf("%10s %8s %12s %12s %14s %14s%n", "lines", "edits",
+                "diff ms", "merge ms", "diff ns/line", "merge ns/line");
+        for (int n = minLines; n <= maxLines; n *= 2) {
+            String[] base = randomLines(random, n);
+            // The two sides edit alternate stretches of the file, so that
+            // their edits never touch and the merge has no conflicts.
+            String[] ours = edit(random, base, edits, 0);
+            String[] theirs = edit(random, base, edits, 1);
+            byte[] baseBytes = join(base);
+            byte[] ourBytes = join(ours);
+            byte[] theirBytes = join(theirs);
+            int[][] seqs = Diff.intern(base, ours);
+
+            long diffBest = Long.MAX_VALUE;
+            long mergeBest = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                List<Diff.Edit> script = Diff.diff(seqs[0], seqs[1]);
+                diffBest = Math.min(diffBest, System.nanoTime() - start);
+                check(script, seqs[0], seqs[1]);
+
+                start = System.nanoTime();
+                Diff.Merged merged = Diff.merge(baseBytes, ourBytes, theirBytes);
+                mergeBest = Math.min(mergeBest, System.nanoTime() - start);
+                if (merged.conflicts != 0) {
+                    throw new IllegalStateException(merged.conflicts + " conflicts");
+                }
+            }
+            System.out.printf("%10d %8d %12.1f %12.1f %14.1f %14.1f%n", n, edits,
+                    diffBest / 1e6, mergeBest / 1e6, (double) diffBest / n, (double) mergeBest / n);
+        }
+
+        int[][] unrelated = Diff.intern(randomLines(random, minLines), randomLines(random, minLines));
+        long start = System.nanoTime();
+        List<Diff.Edit> script = Diff.diff(unrelated[0], unrelated[1]);
+        long time = System.nanoTime() - start;
+        check(script, unrelated[0], unrelated[1]);
+        System.out.printf("%10d %8s %12.1f %12s %14.1f %14s%n", minLines, "all",
+                time / 1e6, "-", (double) time / minLines, "-");
+    }
+
+    /** Returns N random lines, almost all distinct. */
+    private static String[] randomLines(Random random, int n) {
+        String[] lines = new String[n];
+        for (int i = 0; i < n; i++) {
+            lines[i] = "line " + Long.toHexString(random.nextLong()) + "\n";
+        }
+        return lines;
+    }
+
+    /** Returns LINES with EDITS random edits, all within the stretches of 64
+     *  lines whose parity is SIDE. */
+    private static String[] edit(Random random, String[] lines, int edits, int side) {
+        int stretches = lines.length / 64;
+        boolean[] touched = new boolean[lines.length];
+        String[] replaced = lines.clone();
+        boolean[] deleted = new boolean[lines.length];
+        String[] inserted = new String[lines.length];
+        for (int e = 0; e < edits; e++) {
+            int stretch = random.nextInt(stretches / 2) * 2 + side;
+            int at = stretch * 64 + 1 + random.nextInt(62);
+            if (touched[at]) {
+                continue;
+            }
+            touched[at] = true;
+            switch (random.nextInt(3)) {
+                case 0:
+                    replaced[at] = "changed " + e + "\n";
+                    break;
+                case 1:
+                    inserted[at] = "inserted " + e + "\n";
+                    break;
+                default:
+                    deleted[at] = true;
+                    break;
+            }
+        }
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (inserted[i] != null) {
+                res.add(inserted[i]);
+            }
+            if (!deleted[i]) {
+                res.add(replaced[i]);
+            }
+        }
+        return res.toArray(new String[0]);
+    }
+
+    private static byte[] join(String[] lines) {
+        return String.join("", lines).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Throws if applying SCRIPT to A does not give B. */
+    private static void check(List<Diff.Edit> script, int[] a, int[] b) {
+        int[] res = new int[b.length];
+        int n = 0;
+        int pos = 0;
+        for (Diff.Edit e : script) {
+            if (e.aStart < pos || n + e.aStart - pos + e.bEnd - e.bStart > b.length) {
+                throw new IllegalStateException("malformed diff");
+            }
+            System.arraycopy(a, pos, res, n, e.aStart - pos);
+            n += e.aStart - pos;
+            System.arraycopy(b, e.bStart, res, n, e.bEnd - e.bStart);
+            n += e.bEnd - e.bStart;
+            pos = e.aEnd;
+        }
+        if (n + a.length - pos != b.length) {
+            throw new IllegalStateException("wrong diff");
+        }
+        System.arraycopy(a, pos, res, n, a.length - pos);
+        if (!Arrays.equals(res, b)) {
+            throw new IllegalStateException("wrong diff");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+/** Measures merge-base queries on a deep history with shallow divergence.
+ *  Writes a commit-graph of a trunk of DEPTH synthetic commits into a scratch
+ *  repository and, for each of QUERIES pairs, two branches of DIVERGENCE
+ *  commits forked from the same commit among the last hundred of the trunk.
+ *  Times MergeBase on each pair against the full-ancestry search it replaces
+ *  (every ancestor of one side walked, then the other side searched
+ *  breadth-first), checking that both find the fork.
+ *
+ *  Usage: java gitlet.MergeBaseBenchmark [DEPTH [DIVERGENCE [QUERIES]]]
+ *
+ *  @author fqcd
+ */
+public class MergeBaseBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int divergence = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        File dir = Files.createTempDirectory("gitlet-merge-base").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.GITLET_DIR.mkdirs()) {
+            throw new IOException("cannot create " + Repository.GITLET_DIR);
+        }
+
+        Random random = new Random(61);
+        int[] forks = new int[queries];
+        int[][] pairs = new int[queries][2];
+        byte[] raw = new byte[Utils.UID_LENGTH / 2];
+        CommitGraph.writeHeader(CommitGraph.GRAPH_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(CommitGraph.GRAPH_FILE, true)))) {
+            for (int i = 0; i < depth; i++) {
+                random.nextBytes(raw);
+                CommitGraph.writeRecord(out, Pack.bytesToHex(raw),
+                        i == 0 ? CommitGraph.NONE : i - 1, CommitGraph.NONE, i + 1, i);
+            }
+            int next = depth;
+            for (int q = 0; q < queries; q++) {
+                forks[q] = depth - 1 - random.nextInt(Math.min(100, depth));
+                for (int side = 0; side < 2; side++) {
+                    int parent = forks[q];
+                    for (int k = 0; k < divergence; k++) {
+                        random.nextBytes(raw);
+                        CommitGraph.writeRecord(out, Pack.bytesToHex(raw), parent,
+                                CommitGraph.NONE, forks[q] + k + 2, next);
+                        parent = next++;
+                    }
+                    pairs[q][side] = parent;
+                }
+            }
+        }
+
+        try {
+            CommitGraph graph = CommitGraph.read();
+            System.out.printf("depth: %d, divergence: %d, commits: %d%n",
+                    depth, divergence, graph.size());
+
+            long engine = 0;
+            long full = 0;
+            for (int q = 0; q < queries; q++) {
+                long start = System.nanoTime();
+                List<Integer> bases = MergeBase.bases(graph, pairs[q][0], pairs[q][1]);
+                engine += System.nanoTime() - start;
+                start = System.nanoTime();
+                int slow = fullSearch(graph, pairs[q][0], pairs[q][1]);
+                full += System.nanoTime() - start;
+                if (bases.size() != 1 || bases.get(0) != forks[q] || slow != forks[q]) {
+                    throw new IllegalStateException("merge-base disagrees at " + forks[q]);
+                }
+            }
+
+            System.out.printf("%14s %14s %14s%n", "query", "engine us", "full us");
+            System.out.printf("%14s %14.1f %14.1f%n", "merge-base",
+                    engine / 1e3 / queries, full / 1e3 / queries);
+        } finally {
+            CommitBitmaps.BITMAP_FILE.delete();
+            CommitIndex.INDEX_FILE.delete();
+            CommitGraph.GRAPH_FILE.delete();
+            Repository.GITLET_DIR.delete();
+            dir.delete();
+        }
+    }
+
+    /** Returns the first ancestor of the commit at B, breadth-first, that is
+     *  an ancestor of the commit at A, walking every ancestor of A. */
+    private static int fullSearch(CommitGraph graph, int a, int b) {
+        BitSet ancestorOfA = new BitSet(a + 1);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(a);
+        ancestorOfA.set(a);
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            for (int parent : new int[] {graph.parent1(p), graph.parent2(p)}) {
+                if (parent != CommitGraph.NONE && !ancestorOfA.get(parent)) {
+                    ancestorOfA.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        BitSet visited = new BitSet(b + 1);
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.offer(b);
+        visited.set(b);
+        while (!queue.isEmpty()) {
+            int p = queue.poll();
+            if (ancestorOfA.get(p)) {
+                return p;
+            }
+            for (int parent : new int[] {graph.parent1(p), graph.parent2(p)}) {
+                if (parent != CommitGraph.NONE && !visited.get(parent)) {
+                    visited.set(parent);
+                    queue.offer(parent);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+}
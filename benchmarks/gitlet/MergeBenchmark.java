@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Measures merges that touch many files, and how they scale with threads.
+ *  Commits FILES files of LINES lines into a scratch repository, then has
+ *  the branch other rewrite the first line of every file and master rewrite
+ *  the last line of every tenth, so that merging other into master takes
+ *  nine files in ten from other and merges the rest line by line, without
+ *  conflicts. Times the merge at 1, 2, 4, ... up to MAX_THREADS (by default
+ *  the number of available processors), resetting master after each, and
+ *  reports the best of ROUNDS runs and the time to plan the merge alone.
+ *
+ *  Usage: java gitlet.MergeBenchmark [FILES [LINES [ROUNDS [MAX_THREADS]]]]
+ *
+ *  @author fqcd
+ */
+public class MergeBenchmark {
+    /** Output of the commands, which must stay empty. */
+    private static final ByteArrayOutputStream OUTPUT = new ByteArrayOutputStream();
+
+    public static void main(String[] args) throws IOException {
+        int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3])
+            : Runtime.getRuntime().availableProcessors();
+
+        File dir = Files.createTempDirectory("gitlet-merge").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OUTPUT, true));
+        try {
+            Repository.setUpPersistence();
+            check("init");
+            Batch.begin();
+            try {
+                for (int i = 0; i < numFiles; i++) {
+                    write(dir, i, lines, "base", "base");
+                    Repository.stageFile(name(i));
+                }
+                commit("base");
+                Repository.newBranch("other");
+                Repository.checkoutBranch("other");
+                for (int i = 0; i < numFiles; i++) {
+                    write(dir, i, lines, "other", "base");
+                    Repository.stageFile(name(i));
+                }
+                commit("other");
+                Repository.checkoutBranch("master");
+                for (int i = 0; i < numFiles; i += 10) {
+                    write(dir, i, lines, "base", "master");
+                    Repository.stageFile(name(i));
+                }
+                commit("master");
+            } finally {
+                Batch.end();
+            }
+            check("setup");
+        } finally {
+            System.setOut(stdout);
+        }
+
+        Branches branches = Branches.readBranches();
+        String master = branches.getCurCommit();
+        Commit cur = Utils.readCommit(master);
+        Commit other = Utils.readCommit(branches.getCommit("other"));
+        Commit base = Utils.readCommit(Commit.getSplitPoint(master, other.id));
+        double planBest = Double.MAX_VALUE;
+        int planned = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            planned = MergePlan.plan(base.getBlobs(), cur.getBlobs(), other.getBlobs()).size();
+            planBest = Math.min(planBest, (System.nanoTime() - start) / 1e6);
+        }
+
+        System.out.printf("files: %d x %d lines, %d changed by the merge, %d processors%n",
+                numFiles, lines, planned, Runtime.getRuntime().availableProcessors());
+        System.out.printf("plan: %.1f ms%n", planBest);
+        System.out.printf("%8s %12s %10s%n", "threads", "best ms", "speedup");
+        System.setOut(new PrintStream(OUTPUT, true));
+        try {
+            Object reference = null;
+            double single = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                Config.set(Config.PARALLELISM, Integer.toString(threads));
+                double best = Double.MAX_VALUE;
+                for (int r = 0; r < rounds; r++) {
+                    long start = System.nanoTime();
+                    Repository.mergeBranch("other");
+                    best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                    check("merge");
+                    Object merged = Utils.readCommit(Branches.readBranches().getCurCommit()).getBlobs();
+                    if (reference == null) {
+                        reference = merged;
+                    } else if (!reference.equals(merged)) {
+                        throw new IllegalStateException("merge differs with " + threads + " threads");
+                    }
+                    Repository.reset(master);
+                    check("reset");
+                }
+                if (threads == 1) {
+                    single = best;
+                }
+                stdout.printf("%8d %12.1f %10.2f%n", threads, best, single / best);
+                if (threads == maxThreads) {
+                    break;
+                }
+            }
+        } finally {
+            System.setOut(stdout);
+            delete(dir);
+        }
+    }
+
+    /** Write file I with LINES lines, the first FIRST and the last LAST. */
+    private static void write(File dir, int i, int lines, String first, String last) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        contents.append(first).append(' ').append(i).append('\n');
+        for (int k = 1; k < lines - 1; k++) {
+            contents.append("line ").append(k).append(" of file ").append(i).append('\n');
+        }
+        contents.append(last).append(' ').append(i).append('\n');
+        Files.write(new File(dir, name(i)).toPath(), contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void commit(String message) {
+        Repository.newCommit(message);
+        check("commit " + message);
+    }
+
+    /** Fail if the command WHAT printed anything, which means it failed. */
+    private static void check(String what) {
+        if (OUTPUT.size() > 0) {
+            throw new IllegalStateException(what + ": " + OUTPUT);
+        }
+    }
+
+    private static String name(int i) {
+        return "file" + i + ".txt";
+    }
+
+    /** Delete DIR and everything in it. */
+    private static void delete(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/** Measures resolving abbreviated commit ids with the sorted commit index.
+ *  Writes a commit-graph of COMMITS synthetic commits (a single chain with
+ *  random ids) into a scratch repository, builds the commit index, and times
+ *  LOOKUPS resolutions of random 8-digit prefixes against a linear scan of the
+ *  same ids, which is what resolving a prefix by listing ids costs.
+ *
+ *  Usage: java gitlet.PrefixBenchmark [COMMITS [LOOKUPS]]
+ *
+ *  @author fqcd
+ */
+public class PrefixBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int numCommits = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        File dir = Files.createTempDirectory("gitlet-prefix").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.GITLET_DIR.mkdirs()) {
+            throw new IOException("cannot create " + Repository.GITLET_DIR);
+        }
+
+        Random random = new Random(61);
+        String[] ids = new String[numCommits];
+        byte[] raw = new byte[Utils.UID_LENGTH / 2];
+        CommitGraph.writeHeader(CommitGraph.GRAPH_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(CommitGraph.GRAPH_FILE, true)))) {
+            for (int i = 0; i < numCommits; i++) {
+                random.nextBytes(raw);
+                ids[i] = Pack.bytesToHex(raw);
+                CommitGraph.writeRecord(out, ids[i], i - 1, CommitGraph.NONE, i + 1, i);
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            CommitGraph graph = CommitGraph.read();
+            CommitIndex.read(graph);
+            System.out.printf("commits: %d, index built in %.1f ms%n", numCommits,
+                    (System.nanoTime() - start) / 1e6);
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                String id = ids[random.nextInt(numCommits)];
+                if (!CommitIndex.matchAll(id.substring(0, 8)).contains(id)) {
+                    throw new IllegalStateException("lost " + id);
+                }
+            }
+            double indexed = (System.nanoTime() - start) / 1e3 / lookups;
+
+            int scans = Math.max(1, Math.min(lookups, 20));
+            start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                String prefix = ids[random.nextInt(numCommits)].substring(0, 8);
+                int found = 0;
+                for (int pos = 0; pos < graph.size(); pos++) {
+                    if (graph.idAt(pos).startsWith(prefix)) {
+                        found++;
+                    }
+                }
+                if (found == 0) {
+                    throw new IllegalStateException("lost " + prefix);
+                }
+            }
+            double linear = (System.nanoTime() - start) / 1e3 / scans;
+
+            System.out.printf("%12s %14s%n", "lookup", "us per lookup");
+            System.out.printf("%12s %14.2f%n", "index", indexed);
+            System.out.printf("%12s %14.2f%n", "linear", linear);
+        } finally {
+            CommitIndex.INDEX_FILE.delete();
+            CommitGraph.GRAPH_FILE.delete();
+            Repository.GITLET_DIR.delete();
+            dir.delete();
+        }
+    }
+}
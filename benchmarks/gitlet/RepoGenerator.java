@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/** Generates a synthetic repository for scale testing, through the same
+ *  Repository calls as the commands, run as one batch so that the branches
+ *  and the stage stay in memory (with a checkpoint every CHECKPOINT commits).
+ *
+ *  The repository has FILES files of SIZE bytes and about COMMITS commits on
+ *  master and BRANCHES branches b1, b2, ... Commits come in runs of RUN on a
+ *  randomly chosen branch, each rewriting CHANGES files. Each branch only
+ *  rewrites its own share of the files, so merges never conflict, and every
+ *  MERGE_EVERY commits the branch of the run is merged into master (0 for
+ *  never). Finally every branch gets one commit that is not merged, and
+ *  master is checked out. The message of commit n is "change n".
+ *
+ *  Usage: java gitlet.RepoGenerator DIR [COMMITS [FILES [BRANCHES [MERGE_EVERY [SIZE]]]]]
+ *
+ *  @author fqcd
+ */
+public class RepoGenerator {
+    /** Commits in a row on one branch. */
+    private static final int RUN = 10;
+
+    /** Files rewritten by each commit. */
+    private static final int CHANGES = 2;
+
+    /** Commits between checkpoints of the batch. */
+    private static final int CHECKPOINT = 1000;
+
+    private final Random random = new Random(61);
+    private final File dir;
+    private final int files;
+    private final int branches;
+    private final int size;
+
+    /** Output of the commands, which must stay empty. */
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    /** The branch checked out: 0 for master, k for bk. */
+    private int current = 0;
+
+    private int commits = 0;
+
+    private RepoGenerator(File dir, int files, int branches, int size) {
+        this.dir = dir;
+        this.files = files;
+        this.branches = branches;
+        this.size = size;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java gitlet.RepoGenerator DIR "
+                    + "[COMMITS [FILES [BRANCHES [MERGE_EVERY [SIZE]]]]]");
+            System.exit(2);
+        }
+        File dir = new File(args[0]).getAbsoluteFile();
+        int numCommits = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int numFiles = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int numBranches = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int mergeEvery = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+        int size = args.length > 5 ? Integer.parseInt(args[5]) : 256;
+        if (numFiles <= numBranches) {
+            throw new IllegalArgumentException("need more files than branches");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        System.setProperty("user.dir", dir.getPath());
+        if (Repository.GITLET_DIR.exists()) {
+            throw new IOException(dir + " already holds a repository");
+        }
+
+        long start = System.nanoTime();
+        RepoGenerator gen = new RepoGenerator(dir, numFiles, numBranches, size);
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(gen.output, true));
+        try {
+            gen.generate(numCommits, mergeEvery);
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.printf("%d commits, %d files, %d branches in %.1f s%n", gen.commits,
+                numFiles, numBranches, (System.nanoTime() - start) / 1e9);
+    }
+
+    /** Generate a history of about NUMCOMMITS commits, merging every
+     *  MERGEEVERY commits. */
+    private void generate(int numCommits, int mergeEvery) throws IOException {
+        Repository.setUpPersistence();
+        check("init");
+        Batch.begin();
+        try {
+            for (int i = 0; i < files; i++) {
+                rewrite(i);
+                Repository.stageFile(name(i));
+            }
+            commit();
+            for (int b = 1; b <= branches; b++) {
+                Repository.newBranch(branch(b));
+                check("branch " + branch(b));
+            }
+
+            while (commits < numCommits) {
+                checkout(random.nextInt(branches + 1));
+                for (int r = 0; r < RUN && commits < numCommits; r++) {
+                    change();
+                    if (current != 0 && mergeEvery > 0 && commits % mergeEvery == 0) {
+                        int merged = current;
+                        checkout(0);
+                        Repository.mergeBranch(branch(merged));
+                        if (output.toString().startsWith("Current branch fast-forwarded.")) {
+                            output.reset();
+                        } else {
+                            check("merge " + branch(merged));
+                            commits++;
+                        }
+                        break;
+                    }
+                }
+            }
+            for (int b = 1; b <= branches; b++) {
+                checkout(b);
+                change();
+            }
+            checkout(0);
+        } finally {
+            Batch.end();
+        }
+    }
+
+    /** Rewrite CHANGES files of the current branch and commit them. */
+    private void change() throws IOException {
+        int share = (files - current + branches) / (branches + 1);
+        for (int k = 0; k < CHANGES; k++) {
+            int i = current + (branches + 1) * random.nextInt(share);
+            rewrite(i);
+            Repository.stageFile(name(i));
+        }
+        commit();
+    }
+
+    /** Commit the stage as the next commit. */
+    private void commit() {
+        Repository.newCommit("change " + commits);
+        check("commit " + commits);
+        commits++;
+        if (commits % CHECKPOINT == 0) {
+            Batch.checkpoint();
+            System.err.printf("%d commits%n", commits);
+        }
+    }
+
+    /** Check out branch B (0 for master) unless it is current. */
+    private void checkout(int b) {
+        if (b != current) {
+            Repository.checkoutBranch(branch(b));
+            check("checkout " + branch(b));
+            current = b;
+        }
+    }
+
+    /** Give file I new contents. */
+    private void rewrite(int i) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        while (contents.length() < size) {
+            contents.append("file ").append(i).append(" commit ").append(commits)
+                    .append(' ').append(random.nextInt()).append('\n');
+        }
+        Files.write(new File(dir, name(i)).toPath(),
+                contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Fail if the command WHAT printed anything, which means it failed. */
+    private void check(String what) {
+        if (output.size() > 0) {
+            throw new IllegalStateException(what + ": " + output);
+        }
+    }
+
+    private static String branch(int b) {
+        return b == 0 ? "master" : "b" + b;
+    }
+
+    private static String name(int i) {
+        return "file" + i + ".txt";
+    }
+}
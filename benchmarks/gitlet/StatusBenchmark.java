@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** Measures how hashing the working files for status scales with threads.
+ *  Generates FILES files of SIZE_KB kilobytes each and hashes all of them with
+ *  Stage.getIds, with an empty stat cache, at 1, 2, 4, ... up to MAX_THREADS
+ *  (by default the number of available processors), reporting the best of
+ *  ROUNDS runs.
+ *
+ *  Usage: java gitlet.StatusBenchmark [FILES [SIZE_KB [ROUNDS [MAX_THREADS]]]]
+ *
+ *  @author fqcd
+ */
+public class StatusBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int sizeKb = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3])
+            : Runtime.getRuntime().availableProcessors();
+
+        File dir = Files.createTempDirectory("gitlet-status").toFile();
+        List<File> files = new ArrayList<>();
+        Random random = new Random(61);
+        byte[] contents = new byte[sizeKb * 1024];
+        for (int i = 0; i < numFiles; i++) {
+            random.nextBytes(contents);
+            File f = new File(dir, "file" + i + ".txt");
+            Files.write(f.toPath(), contents);
+            files.add(f);
+        }
+
+        System.out.printf("files: %d x %d KB, %d processors%n", numFiles, sizeKb,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %12s %10s%n", "threads", "best ms", "speedup");
+        try {
+            TreeMap<String, String> reference = null;
+            double base = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                double best = Double.MAX_VALUE;
+                for (int r = 0; r < rounds; r++) {
+                    Stage stage = new Stage();
+                    long start = System.nanoTime();
+                    TreeMap<String, String> ids = stage.getIds(files, threads);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                    if (reference == null) {
+                        reference = ids;
+                    } else if (!reference.equals(ids)) {
+                        throw new IllegalStateException("ids differ with " + threads + " threads");
+                    }
+                }
+                if (threads == 1) {
+                    base = best;
+                }
+                System.out.printf("%8d %12.1f %10.2f%n", threads, best, base / best);
+                if (threads == maxThreads) {
+                    break;
+                }
+            }
+        } finally {
+            for (File f : files) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package gitlet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmark of Utils.sha1 on contents of SIZEKB kilobytes.
+ *
+ *  @author fqcd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+    @Param({"1", "64", "1024"})
+    public int sizeKb;
+
+    private byte[] contents;
+
+    @Setup
+    public void createContents() {
+        contents = new byte[sizeKb * 1024];
+        new Random(61).nextBytes(contents);
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(contents);
+    }
+}
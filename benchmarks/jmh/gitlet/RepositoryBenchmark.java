@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of the core commands on a scratch repository (see
+ *  ScratchRepository) of FILES files of FILESIZEKB kilobytes with a history
+ *  of DEPTH commits. Each benchmark runs in its own fork on its own
+ *  repository, so those that change the repository (trackFile, newCommit,
+ *  switchCommit) do not disturb the others. Output of the commands is
+ *  discarded.
+ *
+ *  @author fqcd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+    @Param({"100", "1000"})
+    public int files;
+
+    @Param({"4", "64"})
+    public int fileSizeKb;
+
+    @Param({"10", "200"})
+    public int depth;
+
+    private ScratchRepository repo;
+
+    private PrintStream stdout;
+
+    /** The head commits of master and of other. */
+    private String master;
+    private String other;
+
+    /** The commit the working files are at, and the one switchCommit goes to. */
+    private Commit current;
+    private Commit next;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        repo = ScratchRepository.create(files, fileSizeKb, depth);
+        Branches branches = Branches.readBranches();
+        master = branches.getCommit("master");
+        other = branches.getCommit("other");
+        current = Utils.readCommit(master);
+        next = Utils.readCommit(other);
+        stdout = ScratchRepository.silence();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        System.setOut(stdout);
+        repo.delete();
+    }
+
+    /** A working file rewritten before each call. */
+    @State(Scope.Benchmark)
+    public static class ChangedFile {
+        File file;
+
+        @Setup(Level.Invocation)
+        public void rewrite(RepositoryBenchmark bench) throws IOException {
+            file = bench.repo.rewrite(bench.repo.randomFile());
+        }
+    }
+
+    /** Files rewritten and staged before each call. */
+    @State(Scope.Benchmark)
+    public static class StagedChange {
+        @Setup(Level.Invocation)
+        public void stage(RepositoryBenchmark bench) throws IOException {
+            bench.repo.stageChange();
+        }
+    }
+
+    @Benchmark
+    public Stage trackFile(ChangedFile changed) {
+        Stage stage = Stage.readStage();
+        stage.trackFile(changed.file);
+        return stage;
+    }
+
+    @Benchmark
+    public void newCommit(StagedChange staged) {
+        repo.commit();
+    }
+
+    @Benchmark
+    public void showStatus() {
+        Repository.showStatus();
+    }
+
+    @Benchmark
+    public boolean switchCommit() {
+        boolean res = Repository.switchCommit(next, current, Stage.readStage());
+        Commit c = current;
+        current = next;
+        next = c;
+        return res;
+    }
+
+    @Benchmark
+    public String getSplitPoint() {
+        return Commit.getSplitPoint(master, other);
+    }
+
+    @Benchmark
+    public void findLog() {
+        Repository.findLog("commit " + depth / 2);
+    }
+}
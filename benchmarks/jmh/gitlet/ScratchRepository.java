@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Generates the scratch repository a JMH benchmark runs against, through the
+ *  same Repository calls as the commands. The repository has FILES files of
+ *  SIZE_KB kilobytes and DEPTH commits on master after the initial one, each
+ *  rewriting one file in a hundred. Branch "other" leaves master halfway and
+ *  has one commit of its own, so the split point of the two branches is
+ *  DEPTH / 2 commits behind master. Every commit message is "commit <n>".
+ *
+ *  Repository takes its folder from user.dir when it is loaded, so a scratch
+ *  repository must be created before anything touches Repository, which JMH
+ *  ensures by running each benchmark in a fresh fork.
+ *
+ *  @author fqcd
+ */
+final class ScratchRepository {
+    /** Generates the contents of the files. */
+    private final Random random = new Random(61);
+
+    /** Size of each file in bytes. */
+    private final int size;
+
+    /** The number of files. */
+    private final int files;
+
+    /** The folder of the repository. */
+    final File dir;
+
+    private int commits = 0;
+
+    private ScratchRepository(File dir, int files, int sizeKb) {
+        this.dir = dir;
+        this.files = files;
+        this.size = sizeKb * 1024;
+    }
+
+    /** Returns a new scratch repository of FILES files of SIZEKB kilobytes and
+     *  a history of DEPTH commits, made the current folder of Repository. */
+    static ScratchRepository create(int files, int sizeKb, int depth) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-jmh").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.CWD.equals(dir)) {
+            throw new IllegalStateException("Repository was loaded before the scratch "
+                    + "repository was created; run the benchmark with forks");
+        }
+        ScratchRepository repo = new ScratchRepository(dir, files, sizeKb);
+        PrintStream stdout = silence();
+        try {
+            Repository.setUpPersistence();
+            for (int i = 0; i < files; i++) {
+                repo.rewrite(i);
+                Repository.stageFile(name(i));
+            }
+            repo.commit();
+            for (int c = 0; c < depth; c++) {
+                if (c == depth / 2) {
+                    Repository.newBranch("other");
+                }
+                repo.change();
+            }
+            Repository.checkoutBranch("other");
+            repo.change();
+            Repository.checkoutBranch("master");
+        } finally {
+            System.setOut(stdout);
+        }
+        return repo;
+    }
+
+    /** Rewrite one file in a hundred (at least one) and stage it. */
+    void stageChange() throws IOException {
+        for (int k = 0; k < Math.max(1, files / 100); k++) {
+            int i = random.nextInt(files);
+            rewrite(i);
+            Repository.stageFile(name(i));
+        }
+    }
+
+    /** Rewrite one file in a hundred and commit the change. */
+    private void change() throws IOException {
+        stageChange();
+        commit();
+    }
+
+    /** Commit the stage with the next message. */
+    void commit() {
+        Repository.newCommit("commit " + commits);
+        commits++;
+    }
+
+    /** Returns the working file I, after rewriting it with fresh contents. */
+    File rewrite(int i) throws IOException {
+        byte[] contents = new byte[size];
+        for (int b = 0; b < size; b++) {
+            contents[b] = (byte) (b % 64 == 63 ? '\n' : 'a' + random.nextInt(26));
+        }
+        File f = Utils.join(dir, name(i));
+        Files.write(f.toPath(), contents);
+        return f;
+    }
+
+    /** Returns a random file number. */
+    int randomFile() {
+        return random.nextInt(files);
+    }
+
+    /** Returns the name of file I. */
+    static String name(int i) {
+        return "file" + i + ".txt";
+    }
+
+    /** Delete the repository and everything in it. */
+    void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /** Send the standard output nowhere, returning the old standard output.
+     *  Commands print their results, which would only clutter the output of
+     *  JMH. */
+    static PrintStream silence() {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return stdout;
+    }
+}
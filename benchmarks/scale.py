@@ -0,0 +1,181 @@
+#!/usr/bin/env python3
+"""End-to-end latency of gitlet commands on synthetic repositories of growing scale.
+
+Usage: python3 scale.py [--commits N,N,...] [--files N,N,...] [--branches N]
+                        [--merge-every N] [--samples N] [--output FILE]
+                        [--baseline FILE] [--tolerance X] [--classpath PATH]
+                        [--keep]
+
+For each scale, generates a repository with gitlet.RepoGenerator (COMMITS[i]
+commits over FILES[i] files), then runs each of log, status, find, checkout
+and merge SAMPLES times as a separate `java gitlet.Main` process, and reports
+the median (p50) and 99th percentile (p99) wall time and the peak resident
+set size of the process, taken from os.wait4. checkout alternates between
+master and b1; each merge merges b1 into master and is undone by an untimed
+reset.
+
+The growth of each command is the slope of log(p50) against log(commits)
+over the scales: 0 for constant time, 1 for linear. The results are written
+as JSON to OUTPUT. Given a BASELINE written the same way, the run fails if
+the growth of a command exceeds the baseline's by more than TOLERANCE.
+
+The classpath defaults to the parent directory of this script and this
+directory, which is where `make` puts the compiled classes.
+"""
+
+import argparse
+import json
+import math
+import os
+import shutil
+import subprocess
+import sys
+import tempfile
+import time
+
+COMMANDS = ["log", "status", "find", "checkout", "merge"]
+
+def gitlet(classpath, repo, *args):
+    return subprocess.run(["java", "-cp", classpath, "gitlet.Main"] + list(args),
+                          cwd=repo, capture_output=True, text=True)
+
+def timed(classpath, repo, args):
+    """Run gitlet with ARGS in REPO. Returns the wall time in seconds, the
+    peak RSS in MB and the output."""
+    with tempfile.TemporaryFile() as out:
+        start = time.perf_counter()
+        proc = subprocess.Popen(["java", "-cp", classpath, "gitlet.Main"] + list(args),
+                                cwd=repo, stdout=out, stderr=subprocess.STDOUT)
+        _, status, usage = os.wait4(proc.pid, 0)
+        elapsed = time.perf_counter() - start
+        proc.returncode = os.waitstatus_to_exitcode(status)
+        out.seek(0)
+        output = out.read().decode(errors="replace")
+    # ru_maxrss is in kilobytes on Linux and in bytes on macOS.
+    rss = usage.ru_maxrss / (1024 * 1024 if sys.platform == "darwin" else 1024)
+    if proc.returncode != 0 or "Exception" in output:
+        raise RuntimeError("gitlet {} failed ({}):\n{}".format(
+            " ".join(args), proc.returncode, output[:2000]))
+    return elapsed, rss, output
+
+def percentile(values, p):
+    """The P-th percentile of VALUES, by the nearest-rank method."""
+    ordered = sorted(values)
+    return ordered[max(0, math.ceil(p / 100 * len(ordered)) - 1)]
+
+def head(classpath, repo):
+    """The full id of the head commit."""
+    return gitlet(classpath, repo, "log").stdout.split("\n")[1].split()[1]
+
+def measure(classpath, repo, commits, samples):
+    """Time every command SAMPLES times in REPO. Returns a dict from command
+    to the list of (seconds, MB) of its runs."""
+    runs = {command: [] for command in COMMANDS}
+    master = head(classpath, repo)
+    for i in range(samples):
+        runs["log"].append(timed(classpath, repo, ["log"])[:2])
+        runs["status"].append(timed(classpath, repo, ["status"])[:2])
+        message = "change {}".format((i * 7919) % max(1, commits))
+        runs["find"].append(timed(classpath, repo, ["find", message])[:2])
+        for branch in ("b1", "master"):
+            runs["checkout"].append(timed(classpath, repo, ["checkout", branch])[:2])
+        elapsed, rss, output = timed(classpath, repo, ["merge", "b1"])
+        if "conflict" in output:
+            raise RuntimeError("merge conflicted:\n" + output[:2000])
+        runs["merge"].append((elapsed, rss))
+        result = gitlet(classpath, repo, "reset", master)
+        if result.stdout.strip():
+            raise RuntimeError("reset failed:\n" + result.stdout)
+    return runs
+
+def growth(points):
+    """The least-squares slope of log(p50) against log(commits) of POINTS."""
+    xs = [math.log(p["commits"]) for p in points]
+    ys = [math.log(p["p50_ms"]) for p in points]
+    if len(xs) < 2 or max(xs) == min(xs):
+        return 0.0
+    mx = sum(xs) / len(xs)
+    my = sum(ys) / len(ys)
+    return (sum((x - mx) * (y - my) for x, y in zip(xs, ys))
+            / sum((x - mx) ** 2 for x in xs))
+
+def main():
+    here = os.path.dirname(os.path.abspath(__file__))
+    parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+    parser.add_argument("--commits", default="500,2000,8000")
+    parser.add_argument("--files", default="100,400,1600")
+    parser.add_argument("--branches", type=int, default=4)
+    parser.add_argument("--merge-every", type=int, default=50)
+    parser.add_argument("--samples", type=int, default=20)
+    parser.add_argument("--output", default="scale-result.json")
+    parser.add_argument("--baseline")
+    parser.add_argument("--tolerance", type=float, default=0.2)
+    parser.add_argument("--classpath",
+                        default=os.pathsep.join([os.path.dirname(here), here]))
+    parser.add_argument("--keep", action="store_true",
+                        help="keep the generated repositories for inspection")
+    args = parser.parse_args()
+
+    scales = list(zip([int(n) for n in args.commits.split(",")],
+                      [int(n) for n in args.files.split(",")]))
+    if len(scales) != len(args.commits.split(",")) or \
+       len(scales) != len(args.files.split(",")):
+        parser.error("--commits and --files need the same number of values")
+
+    results = {command: [] for command in COMMANDS}
+    print("{:>9} {:>7} {:>9} {:>10} {:>10} {:>12}".format(
+        "commits", "files", "command", "p50 ms", "p99 ms", "peak RSS MB"))
+    for commits, files in scales:
+        repo = tempfile.mkdtemp(prefix="gitlet-scale-")
+        try:
+            generated = subprocess.run(
+                ["java", "-cp", args.classpath, "gitlet.RepoGenerator", repo,
+                 str(commits), str(files), str(args.branches), str(args.merge_every)],
+                capture_output=True, text=True)
+            if generated.returncode != 0:
+                print(generated.stdout + generated.stderr)
+                return 1
+            runs = measure(args.classpath, repo, commits, args.samples)
+        finally:
+            if args.keep:
+                print("repository kept in", repo)
+            else:
+                shutil.rmtree(repo, ignore_errors=True)
+        for command in COMMANDS:
+            times = [t * 1000 for t, _ in runs[command]]
+            point = {"commits": commits, "files": files,
+                     "p50_ms": percentile(times, 50), "p99_ms": percentile(times, 99),
+                     "peak_rss_mb": max(rss for _, rss in runs[command])}
+            results[command].append(point)
+            print("{:>9} {:>7} {:>9} {:>10.1f} {:>10.1f} {:>12.1f}".format(
+                commits, files, command, point["p50_ms"], point["p99_ms"],
+                point["peak_rss_mb"]))
+
+    report = {command: {"growth": growth(points), "scales": points}
+              for command, points in results.items()}
+    with open(args.output, "w") as f:
+        json.dump(report, f, indent=2)
+    print("growth: " + ", ".join("{} {:.2f}".format(command, report[command]["growth"])
+                                 for command in COMMANDS))
+
+    if args.baseline:
+        with open(args.baseline) as f:
+            baseline = json.load(f)
+        failures = []
+        for command in COMMANDS:
+            if command not in baseline:
+                continue
+            old = baseline[command]["growth"]
+            new = report[command]["growth"]
+            if new > old + args.tolerance:
+                failures.append("{} grows as commits^{:.2f}, was commits^{:.2f}"
+                                .format(command, new, old))
+        if failures:
+            print("\n".join(failures))
+            print("{} regressions.".format(len(failures)))
+            return 1
+        print("No growth regressions against {}.".format(args.baseline))
+    return 0
+
+if __name__ == "__main__":
+    sys.exit(main())
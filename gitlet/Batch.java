@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs many gitlet commands in one JVM.
+ *  Commands are read one per line from a script file or from standard input,
+ *  with the same operands they take on the command line (quoted with " or '
+ *  where they contain spaces). Blank lines and lines starting with # are
+ *  ignored.
+ *
+ *  While a batch runs, Branches, the Stage and recently read commits stay in
+ *  memory between commands, and writes of the branches and index files are
+ *  deferred until a checkpoint: a line reading "checkpoint", every
+ *  batch.checkpoint commands if that is configured, and the end of the input.
+ *  Objects are still written immediately. A command that fails with an
+ *  error prints its message, as on the command line, and the batch goes on
+ *  with the next command. If a command fails unexpectedly, the batch stops
+ *  and the changes since the last checkpoint are discarded.
+ *
+ *  The batch holds the exclusive lock of the repository from its first
+ *  command to its end, so other processes never see its deferred state.
+ *
+ *  @author fqcd
+ */
+class Batch {
+    /** The config key of the number of commands between checkpoints. */
+    static final String CHECKPOINT_INTERVAL = "batch.checkpoint";
+
+    /** Whether a batch is running. */
+    private static boolean active = false;
+
+    /** Returns true if a batch is running. */
+    static boolean isActive() {
+        return active;
+    }
+
+    /** Run the commands of the script named by ARGS[1], or of standard input
+     *  if there is none. */
+    static void run(String[] args) {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        active = true;
+        try (BufferedReader in = args.length == 2
+                ? Files.newBufferedReader(new File(args[1]).toPath(), StandardCharsets.UTF_8)
+                : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            int sinceCheckpoint = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] command = split(line);
+                if (command.length == 0 || command[0].startsWith("#")) {
+                    continue;
+                }
+                if (command[0].equals("checkpoint")) {
+                    checkpoint();
+                    sinceCheckpoint = 0;
+                    continue;
+                }
+                try {
+                    Main.run(command);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                }
+                System.out.flush();
+                sinceCheckpoint++;
+                int interval = Repository.GITLET_DIR.exists()
+                        ? Config.getInt(CHECKPOINT_INTERVAL, 0) : 0;
+                if (interval > 0 && sinceCheckpoint >= interval) {
+                    checkpoint();
+                    sinceCheckpoint = 0;
+                }
+            }
+            checkpoint();
+        } catch (IOException excp) {
+            System.out.println("Cannot read batch: " + excp.getMessage());
+        } finally {
+            finish();
+        }
+    }
+
+    /** Start a batch driven by calls from Java rather than by a script, such
+     *  as the repository generator of the benchmarks: until end is called,
+     *  the state of the repository stays in memory as between the commands
+     *  of a batch, under the exclusive lock. */
+    static void begin() {
+        RepoLock.acquire(false);
+        active = true;
+    }
+
+    /** End the batch started by begin, writing its deferred state. */
+    static void end() {
+        try {
+            checkpoint();
+        } finally {
+            finish();
+        }
+    }
+
+    /** Leave batch mode, forgetting the state kept in memory and releasing
+     *  the lock. */
+    private static void finish() {
+        active = false;
+        Branches.forget();
+        Stage.forget();
+        RepoLock.release();
+    }
+
+    /** Write the branches and index kept in memory to disk. */
+    static void checkpoint() {
+        Branches.flush();
+        Stage.flush();
+    }
+
+    /** Split LINE into words, honoring single and double quotes and, inside
+     *  double quotes, backslash escapes. */
+    static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+                    word.append(line.charAt(++i));
+                } else {
+                    word.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                } else {
+                    word.append(c);
+                }
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
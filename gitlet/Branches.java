@@ -10,6 +10,8 @@ import java.util.*;
  *  @author fqcd
  */
 public class Branches implements Serializable {
+    /** Same as the version before the batch cache, so that old branches files still load. */
+    private static final long serialVersionUID = 6121154716061726400L;
 
     /** Current branch name. */
     private String curBranch;
@@ -27,10 +29,48 @@ public class Branches implements Serializable {
         refs.put(curBranch, curCommit);
     }
 
+    /** The branches kept in memory during a batch, or null. */
+    private static Branches cached = null;
+
+    /** Whether the cached branches have changes not yet written. */
+    private static boolean dirty = false;
+
+    /** Returns the branches of the repository. During a batch they are read
+     *  once and kept in memory. */
+    public static Branches readBranches() {
+        if (cached != null) {
+            return cached;
+        }
+        Branches branches = Utils.readObject(Repository.BRANCHES, Branches.class);
+        if (Batch.isActive()) {
+            cached = branches;
+        }
+        return branches;
+    }
+
     public void writeBranches() {
+        if (Batch.isActive()) {
+            cached = this;
+            dirty = true;
+            return;
+        }
         Utils.writeObject(Repository.BRANCHES, this);
     }
 
+    /** Write the branches kept in memory, if they changed. */
+    public static void flush() {
+        if (dirty) {
+            Utils.writeObject(Repository.BRANCHES, cached);
+            dirty = false;
+        }
+    }
+
+    /** Drop the branches kept in memory without writing them. */
+    public static void forget() {
+        cached = null;
+        dirty = false;
+    }
+
     public void update(String uid) {
         curCommit = uid;
         refs.put(curBranch, curCommit);
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Represents blobs stored as lists of chunks.
+ *  A blob of at least chunk.threshold bytes (8 MB by default) is cut into
+ *  chunks at points chosen by its contents, with FastCDC: a gear hash rolls
+ *  over the bytes and a chunk ends where its top bits are all zero. Since a
+ *  cut point depends only on the 64 bytes before it, an edit moves the cut
+ *  points near it and no others, so the versions of a large file share all
+ *  their chunks but those around the edits. Each chunk is stored once under
+ *  objects/chunks, named by the SHA-1 of its contents alone, so identical
+ *  chunks of any files and versions are shared.
+ *
+ *  Chunks are MIN_SIZE to MAX_SIZE bytes, AVG_SIZE on average. Cut points are
+ *  never looked for in the first MIN_SIZE bytes of a chunk, and the mask
+ *  is harder to match before AVG_SIZE bytes and easier after (normalized
+ *  chunking), which keeps chunk sizes close to the average.
+ *
+ *  A chunked blob is stored with the encoding byte CHUNKED, followed by the
+ *  length of its contents, the number of its chunks and, for each chunk in
+ *  order, its raw id and length. Reading it streams the chunks one after
+ *  another, so a blob is never held in memory whole.
+ *
+ *  @author fqcd
+ */
+class Chunker {
+    static final int MIN_SIZE = 16 << 10;
+    static final int AVG_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Masks of the top bits of the hash tested for a cut point before and
+     *  after AVG_SIZE bytes: two bits more and two bits fewer than the
+     *  log2(AVG_SIZE) bits that give chunks of AVG_SIZE on average. */
+    private static final long MASK_S = -1L << (64 - 18);
+    private static final long MASK_L = -1L << (64 - 14);
+
+    /** Random values of the bytes in the gear hash. They are fixed, since
+     *  they decide the cut points and so which chunks are shared. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Returns true if a blob of SIZE bytes is stored in chunks. */
+    static boolean appliesTo(long size) {
+        int threshold = Config.chunkThreshold();
+        return Config.format() != 0 && threshold > 0 && size >= threshold;
+    }
+
+    /** Returns the length of the chunk that starts at OFF in BUF, given the
+     *  LEN bytes from OFF that are available, all of the rest of the contents
+     *  if fewer than MAX_SIZE. */
+    static int cut(byte[] buf, int off, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int end = Math.min(len, MAX_SIZE);
+        int normal = Math.min(end, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /** Save the contents read from IN, those of a file named NAME, as a
+     *  chunked blob, storing the chunks not stored yet, and return its uid. */
+    static String save(InputStream in, String name) throws IOException {
+        MessageDigest md = newSha1();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(manifest);
+        byte[] buf = new byte[4 * MAX_SIZE];
+        int pos = 0;
+        int limit = 0;
+        boolean eof = false;
+        long total = 0;
+        int count = 0;
+        while (true) {
+            if (!eof && limit - pos < MAX_SIZE) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+                int n = in.readNBytes(buf, limit, buf.length - limit);
+                Trace.read(n);
+                limit += n;
+                eof = limit < buf.length;
+            }
+            if (pos == limit) {
+                break;
+            }
+            int len = cut(buf, pos, limit - pos);
+            md.update(buf, pos, len);
+            entries.write(Pack.hexToBytes(saveChunk(buf, pos, len)));
+            entries.writeInt(len);
+            pos += len;
+            total += len;
+            count++;
+        }
+        md.update(name.getBytes(StandardCharsets.UTF_8));
+        String uid = hex(md);
+        if (hasObject(uid, Repository.BLOB_DIR)) {
+            return uid;
+        }
+
+        File tmp = tempFile(Repository.OBJECT_DIR, "chunked");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeByte(CHUNKED);
+                out.writeLong(total);
+                out.writeInt(count);
+                manifest.writeTo(out);
+            }
+            Trace.fileOpened();
+            Trace.written(tmp.length());
+            replaceFile(tmp, looseFile(uid, Repository.BLOB_DIR));
+        } finally {
+            tmp.delete();
+        }
+        return uid;
+    }
+
+    /** Store the LEN bytes at OFF in BUF as a chunk, unless it is stored
+     *  already, and return its uid. */
+    private static String saveChunk(byte[] buf, int off, int len) {
+        long start = System.nanoTime();
+        MessageDigest md = newSha1();
+        md.update(buf, off, len);
+        String uid = hex(md);
+        Trace.hashed(System.nanoTime() - start);
+        if (!hasObject(uid, Repository.CHUNK_DIR)) {
+            writeStored(looseFile(uid, Repository.CHUNK_DIR), Arrays.copyOfRange(buf, off, off + len));
+        }
+        return uid;
+    }
+
+    /** Returns the uids of the chunks of the manifest read from IN, just
+     *  after its encoding byte. */
+    private static List<String> readManifest(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        data.readLong();
+        int count = data.readInt();
+        List<String> res = new ArrayList<>(count);
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < count; i++) {
+            data.readFully(id);
+            data.readInt();
+            res.add(Pack.bytesToHex(id));
+        }
+        return res;
+    }
+
+    /** Returns a stream of the contents of the chunked blob read from IN,
+     *  just after its encoding byte, which opens each chunk only when the
+     *  one before it is read to the end. */
+    static InputStream decode(InputStream in) throws IOException {
+        List<String> chunks;
+        try {
+            chunks = readManifest(in);
+        } finally {
+            in.close();
+        }
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < chunks.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String uid = chunks.get(next++);
+                InputStream chunk = openObject(uid, Repository.CHUNK_DIR);
+                if (chunk == null) {
+                    throw error("Missing chunk %s", uid);
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /** Returns the uids of the chunks of the blob UID, none if it is stored
+     *  whole or does not exist. */
+    static List<String> chunksOf(String uid) {
+        try (InputStream in = openStored(uid, Repository.BLOB_DIR)) {
+            if (in == null || Config.format() == 0 || in.read() != CHUNKED) {
+                return List.of();
+            }
+            return readManifest(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
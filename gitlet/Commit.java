@@ -1,6 +1,13 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 /** Represents a gitlet commit object.
@@ -9,6 +16,18 @@ import java.util.*;
  *  @author fqcd
  */
 public class Commit implements Serializable {
+    /** Same as the Java-serialized version, so that commits written before the
+     *  binary encoding still load. */
+    private static final long serialVersionUID = 6242939338549936385L;
+
+    /** Magic number of the binary encoding ("GCMT"). A Java-serialized commit
+     *  starts with 0xACED instead. */
+    private static final int MAGIC = 0x47434d54;
+
+    /** Version of the binary encoding. Version 1 lists the file table inline;
+     *  version 2 refers to a root tree instead, unless the commit has none. */
+    private static final int VERSION = 2;
+
     /** The message of this Commit. */
     private String message;
 
@@ -24,13 +43,26 @@ public class Commit implements Serializable {
     /** The id of the second parent of Commit. */
     public String parent2 = null;
 
-    /** Map of the filename to the uid. */
-    public TreeMap<String, String> blobs;
+    /** Map of the filename to the uid, or null until it is decoded or read from the tree. */
+    private TreeMap<String, String> blobs;
+
+    /** The id of the root tree of this Commit, or null for commits that list
+     *  their files inline (the initial commit and those of older gitlets). */
+    private String tree;
+
+    /** The encoded commit whose file table has not been decoded yet, or null. */
+    private transient byte[] encoded;
+
+    /** Offset of the file table in encoded. */
+    private transient int blobsOffset;
+
+    private Commit() {
+    }
 
     public Commit(String message) {
         this.message = message;
         Date now = new Date();
-        Formatter formatter = new Formatter();
+        Formatter formatter = new Formatter(Locale.US);
         formatter.format("Date: %ta %<tb %<td %<tT %<tY %<tz", now);
         this.date = formatter.toString();
         formatter.close();
@@ -40,13 +72,17 @@ public class Commit implements Serializable {
     public Commit(String message, String p1, String p2) {
         this.message = message;
         Date now = new Date();
-        Formatter formatter = new Formatter();
+        Formatter formatter = new Formatter(Locale.US);
         formatter.format("Date: %ta %<tb %<td %<tT %<tY %<tz", now);
         this.date = formatter.toString();
         formatter.close();
         this.parent1 = p1;
         Commit parentCommit1 = Utils.readCommit(p1);
-        this.blobs = new TreeMap<>(parentCommit1.blobs);
+        if (parentCommit1.tree != null) {
+            this.tree = parentCommit1.tree;
+        } else {
+            this.tree = Tree.update(null, parentCommit1.getBlobs());
+        }
         if (p2 != null) {
             this.parent2 = p2;
         }
@@ -54,8 +90,10 @@ public class Commit implements Serializable {
 
     public static String getId(Commit c) {
         List<String> vals;
-        if (c.blobs != null) {
-            vals = new ArrayList<>(c.blobs.values());
+        if (c.tree != null) {
+            vals = new ArrayList<>(List.of(c.tree));
+        } else if (c.getBlobs() != null) {
+            vals = new ArrayList<>(c.getBlobs().values());
         } else {
             vals = new ArrayList<>();
         }
@@ -72,70 +110,15 @@ public class Commit implements Serializable {
         return c.id;
     }
 
-    /** Search for the lowest common ancestor of two commits */
+    /** Search for the lowest common ancestor of two commits.
+     *  This is the newest of their best common ancestors, found by MergeBase
+     *  over the commit-graph, so no commit object is read. */
     public static String getSplitPoint(String aId, String bId) {
-        String tmp;
-        Commit cur;
-        int oldSize, newSize;
-
-        Set<String> ancestorOfA = new HashSet<>();
-        Set<String> ancestorOfB = new HashSet<>();
-        Queue<String> q = new LinkedList<>();
-
-        tmp = aId;
-        q.offer(tmp);
-        oldSize = 1;
-        while (!q.isEmpty()) {
-            newSize = 0;
-            for (int i = 0; i < oldSize; i++) {
-                tmp = q.poll();
-                if (tmp.equals(bId)) {
-                    return tmp;
-                }
-                cur = Utils.readCommit(tmp);
-                if (cur.parent1 != null && !ancestorOfA.contains(cur.parent1)) {
-                    q.offer(cur.parent1);
-                    ancestorOfA.add(cur.parent1);
-                    newSize++;
-                }
-
-                if (cur.parent2 != null && !ancestorOfA.contains(cur.parent2)) {
-                    q.offer(cur.parent2);
-                    ancestorOfA.add(cur.parent2);
-                    newSize++;
-                }
-            }
-            oldSize = newSize;
-        }
-
-        tmp = bId;
-        q.offer(tmp);
-        oldSize = 1;
-        while (!q.isEmpty()) {
-            newSize = 0;
-            for (int i = 0; i < oldSize; i++) {
-                tmp = q.poll();
-                if (tmp.equals(aId) || ancestorOfA.contains(tmp)) {
-                    return tmp;
-                }
-                cur = Utils.readCommit(tmp);
-
-                if (cur.parent1 != null && !ancestorOfB.contains(cur.parent1)) {
-                    q.offer(cur.parent1);
-                    ancestorOfB.add(cur.parent1);
-                    newSize++;
-                }
-
-                if (cur.parent2 != null && !ancestorOfB.contains(cur.parent2)) {
-                    q.offer(cur.parent2);
-                    ancestorOfB.add(cur.parent2);
-                    newSize++;
-                }
-            }
-            oldSize = newSize;
+        List<String> bases = MergeBase.bases(aId, bId);
+        if (bases == null || bases.isEmpty()) {
+            return null;
         }
-
-        return null;
+        return bases.get(0);
     }
 
     public void outputLog() {
@@ -151,14 +134,196 @@ public class Commit implements Serializable {
         System.out.println();
     }
 
+    /** Save this Commit and add it to the derived files. The commit-graph
+     *  comes last, since the others skip a commit it already lists. */
     public void writeCommit() {
         Utils.saveCommit(this, this.id);
+        MessageIndex.append(this);
+        CommitJournal.append(this);
+        CommitGraph.append(this);
+    }
+
+    /** Returns the time of this Commit in milliseconds. Dates are written and
+     *  parsed in English whatever the default locale, and a date that cannot
+     *  be parsed is an error rather than time 0, which would silently put
+     *  the commit first in time order. */
+    public long getTime() {
+        try {
+            return new SimpleDateFormat("'Date: 'EEE MMM dd HH:mm:ss yyyy Z", Locale.US)
+                    .parse(date).getTime();
+        } catch (ParseException excp) {
+            throw Utils.error("Bad date in commit %s: %s", id, date);
+        }
     }
 
     public String getMessage() {
         return message;
     }
 
+    /** Returns the date line of this Commit, as printed by log. */
+    public String getDate() {
+        return date;
+    }
+
+    /** Returns the map of the filename to the uid, decoding it on first use. */
+    public TreeMap<String, String> getBlobs() {
+        if (encoded != null) {
+            blobs = decodeBlobs(encoded, blobsOffset);
+            encoded = null;
+        } else if (blobs == null && tree != null) {
+            blobs = Tree.files(tree);
+        }
+        return blobs;
+    }
+
+    /** Returns the uid of the file FILENAME, or null if it is not in this
+     *  Commit. A file table not decoded yet is not decoded whole for it: only
+     *  the trees along the path are read. */
+    public String getBlob(String fileName) {
+        if (blobs == null && encoded == null && tree != null) {
+            return Tree.file(tree, fileName);
+        }
+        TreeMap<String, String> files = getBlobs();
+        return files == null ? null : files.get(fileName);
+    }
+
+    /** Rough size in bytes of a String of N Latin-1 characters. */
+    private static long stringFootprint(int n) {
+        return 40 + n;
+    }
+
+    /** Rough size in bytes of an entry of a decoded file table: a TreeMap
+     *  entry, a file name of typical length and a uid. */
+    private static final long FILE_FOOTPRINT = 40 + stringFootprint(24)
+        + stringFootprint(Utils.UID_LENGTH);
+
+    /** Returns an estimate of the memory this Commit takes in bytes, for the
+     *  CommitCache, in constant time. */
+    long footprint() {
+        long res = 64 + stringFootprint(message.length()) + stringFootprint(date.length())
+            + 4 * stringFootprint(Utils.UID_LENGTH);
+        if (encoded != null) {
+            res += 16 + encoded.length;
+        }
+        if (blobs != null) {
+            res += 48 + blobs.size() * FILE_FOOTPRINT;
+        }
+        return res;
+    }
+
+    /** Returns the id of the root tree, or null if the files are listed inline. */
+    public String getTree() {
+        return tree;
+    }
+
+    /** Apply CHANGES, a map of the filename to the new uid or to null for a
+     *  removed file, writing new trees only along the changed paths. */
+    public void update(SortedMap<String, String> changes) {
+        tree = Tree.update(tree, changes);
+        blobs = null;
+        encoded = null;
+    }
+
+    /** Returns the binary encoding of this Commit. The message, date and parents
+     *  come first, followed by the file table, so that readers interested only
+     *  in the former never decode the latter. */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeString(out, message);
+            writeString(out, date);
+            out.writeByte((parent1 != null ? 1 : 0) | (parent2 != null ? 2 : 0));
+            if (parent1 != null) {
+                out.write(Pack.hexToBytes(parent1));
+            }
+            if (parent2 != null) {
+                out.write(Pack.hexToBytes(parent2));
+            }
+            out.writeByte(tree != null ? 1 : 0);
+            if (tree != null) {
+                out.write(Pack.hexToBytes(tree));
+            } else {
+                TreeMap<String, String> files = getBlobs();
+                out.writeInt(files.size());
+                for (Map.Entry<String, String> e : files.entrySet()) {
+                    writeString(out, e.getKey());
+                    out.write(Pack.hexToBytes(e.getValue()));
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+    }
+
+    /** Returns true if CONTENTS is a commit in the binary encoding. */
+    public static boolean isEncoded(byte[] contents) {
+        return contents.length >= 4 && ByteBuffer.wrap(contents).getInt(0) == MAGIC;
+    }
+
+    /** Returns the commit with id UID encoded in CONTENTS. Only the message,
+     *  date and parents are decoded here; the file table waits for getBlobs. */
+    public static Commit decode(byte[] contents, String uid) {
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        int version = in.getInt() == MAGIC ? in.get() : -1;
+        if (version != 1 && version != VERSION) {
+            throw Utils.error("Unknown commit encoding of %s", uid);
+        }
+        Commit c = new Commit();
+        c.id = uid;
+        c.message = readString(in);
+        c.date = readString(in);
+        int parents = in.get();
+        if ((parents & 1) != 0) {
+            c.parent1 = readId(in);
+        }
+        if ((parents & 2) != 0) {
+            c.parent2 = readId(in);
+        }
+        if (version >= 2 && in.get() != 0) {
+            c.tree = readId(in);
+            return c;
+        }
+        c.encoded = contents;
+        c.blobsOffset = in.position();
+        return c;
+    }
+
+    /** Decode the file table starting at OFFSET in CONTENTS. */
+    private static TreeMap<String, String> decodeBlobs(byte[] contents, int offset) {
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        in.position(offset);
+        TreeMap<String, String> res = new TreeMap<>();
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            String name = readString(in);
+            res.put(name, readId(in));
+        }
+        return res;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String readId(ByteBuffer in) {
+        byte[] b = new byte[Utils.UID_LENGTH / 2];
+        in.get(b);
+        return Pack.bytesToHex(b);
+    }
+
     @Override
     public String toString() {
         StringBuilder ret = new StringBuilder("Commit: \nMessage: " + this.message + "\n");
@@ -169,7 +334,7 @@ public class Commit implements Serializable {
             ret.append("parent2: ").append(parent2).append("\n");
         }
         ret.append(this.date).append("\n");
-        for (Map.Entry<String, String> e : this.blobs.entrySet()) {
+        for (Map.Entry<String, String> e : getBlobs().entrySet()) {
             ret.append(e.getKey()).append(" : ").append(e.getValue()).append("\n");
         }
         return ret.toString();
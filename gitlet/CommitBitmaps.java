@@ -0,0 +1,272 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static gitlet.Utils.*;
+
+/** Represents the reachability bitmaps of selected commits.
+ *  The bitmap of a commit has the bit of the graph position of every commit
+ *  reachable from it set, itself included. Bitmaps are kept for the commits
+ *  whose generation number is a multiple of STRIDE, compressed with EWAH, in
+ *  the file .gitlet/bitmaps. Since every chain of parents passes such a
+ *  commit at least every STRIDE generations, the set of commits reachable from
+ *  any commit is a walk of a few commits plus the OR of a few bitmaps, and
+ *  ancestry is a walk that stops at the first bitmaps.
+ *
+ *  Like the commit index, the file covers the first COVERED commits of the
+ *  graph; once more than TAIL_LIMIT commits are left out, the bitmaps of the
+ *  new commits are added, each built from the bitmaps before it.
+ *
+ *  @author fqcd
+ */
+class CommitBitmaps {
+    /** The bitmap file. */
+    static final File BITMAP_FILE = join(Repository.GITLET_DIR, "bitmaps");
+
+    /** Commits whose generation number is a multiple of STRIDE get a bitmap. */
+    static final int STRIDE = 32;
+
+    /** Largest number of graph commits left out of the file. */
+    static final int TAIL_LIMIT = 256;
+
+    /** Magic number of the file ("GBMP"). */
+    private static final int MAGIC = 0x47424d50;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header: magic, version, covered count and bitmap count. */
+    private static final int HEADER_SIZE = 16;
+
+    /** The bitmaps as of their last reading, or null. */
+    private static CommitBitmaps bitmaps = null;
+
+    /** The commit-graph these bitmaps were read for. */
+    private final CommitGraph graph;
+
+    /** The mapped contents of the file. */
+    private final MappedByteBuffer buf;
+
+    /** Number of graph commits covered by the file. */
+    private final int covered;
+
+    /** The graph positions of the commits with a bitmap, in increasing order. */
+    private final int[] positions;
+
+    /** The bitmaps read so far, parallel to positions. */
+    private final Ewah[] maps;
+
+    private CommitBitmaps(CommitGraph graph, MappedByteBuffer buf) {
+        this.graph = graph;
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw error("Bad bitmap file");
+        }
+        covered = buf.getInt(8);
+        positions = new int[buf.getInt(12)];
+        maps = new Ewah[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = buf.getInt(HEADER_SIZE + 8 * i);
+        }
+    }
+
+    /** Returns the bitmaps of GRAPH, writing them first if the file is
+     *  missing, does not match GRAPH, or leaves too many commits of GRAPH out. */
+    static CommitBitmaps read(CommitGraph graph) {
+        if (bitmaps != null && bitmaps.graph == graph) {
+            return bitmaps;
+        }
+        bitmaps = null;
+        CommitBitmaps res = BITMAP_FILE.exists() ? map(graph) : null;
+        if (res == null || res.covered > graph.size()
+                || graph.size() - res.covered > TAIL_LIMIT) {
+            write(graph, res == null || res.covered > graph.size() ? null : res);
+            res = map(graph);
+        }
+        bitmaps = res;
+        return res;
+    }
+
+    /** Returns the bitmap of the commit at POS, or null if it has none. */
+    private Ewah bitmap(int pos) {
+        int i = Arrays.binarySearch(positions, pos);
+        if (i < 0) {
+            return null;
+        }
+        if (maps[i] == null) {
+            maps[i] = Ewah.read(buf, buf.getInt(HEADER_SIZE + 8 * i + 4));
+        }
+        return maps[i];
+    }
+
+    /** Returns the set of commits reachable from the commit at POS, itself
+     *  included, as words of bits indexed by graph position. */
+    long[] reach(int pos) {
+        return reach(graph, pos, this::bitmap);
+    }
+
+    /** Returns the set of commits reachable from the commit at POS of GRAPH,
+     *  walking parents until reaching commits whose bitmap BITMAPS gives. */
+    private static long[] reach(CommitGraph graph, int pos, IntFunction<Ewah> bitmaps) {
+        long[] bits = new long[(pos >>> 6) + 1];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(pos);
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (contains(bits, p)) {
+                continue;
+            }
+            Ewah map = bitmaps.apply(p);
+            if (map != null) {
+                map.orInto(bits);
+                continue;
+            }
+            bits[p >>> 6] |= 1L << p;
+            int p1 = graph.parent1(p);
+            int p2 = graph.parent2(p);
+            if (p2 != CommitGraph.NONE) {
+                stack.push(p2);
+            }
+            if (p1 != CommitGraph.NONE) {
+                stack.push(p1);
+            }
+        }
+        return bits;
+    }
+
+    /** Returns true if the commit at A is the commit at B or one of its
+     *  ancestors. Since parents precede their children in the graph and have
+     *  smaller generation numbers, the walk from B skips every commit that
+     *  cannot reach A, and it stops at the first bitmaps. */
+    boolean isAncestor(int a, int b) {
+        if (a > b) {
+            return false;
+        }
+        int generation = graph.generation(a);
+        BitSet visited = new BitSet(b + 1);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(b);
+        while (!stack.isEmpty()) {
+            int p = stack.pop();
+            if (p == a) {
+                return true;
+            }
+            if (p < a || visited.get(p) || graph.generation(p) <= generation) {
+                continue;
+            }
+            visited.set(p);
+            Ewah map = bitmap(p);
+            if (map != null) {
+                if (map.get(a)) {
+                    return true;
+                }
+                continue;
+            }
+            int p1 = graph.parent1(p);
+            int p2 = graph.parent2(p);
+            if (p1 != CommitGraph.NONE) {
+                stack.push(p1);
+            }
+            if (p2 != CommitGraph.NONE) {
+                stack.push(p2);
+            }
+        }
+        return false;
+    }
+
+    /** Returns true if bit POS of BITS is set. */
+    static boolean contains(long[] bits, int pos) {
+        return (pos >>> 6) < bits.length && (bits[pos >>> 6] & (1L << pos)) != 0;
+    }
+
+    /** Returns the bitmaps file mapped for GRAPH. */
+    private static CommitBitmaps map(CommitGraph graph) {
+        try (FileChannel ch = FileChannel.open(BITMAP_FILE.toPath())) {
+            return new CommitBitmaps(graph, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException excp) {
+            throw error("Failed to read bitmaps: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the bitmaps of all commits of GRAPH, keeping those of OLD (if not
+     *  null) and building the bitmaps of the commits OLD leaves out. */
+    private static void write(CommitGraph graph, CommitBitmaps old) {
+        RepoLock.requireExclusive();
+        List<Integer> positions = new ArrayList<>();
+        List<Ewah> maps = new ArrayList<>();
+        Map<Integer, Ewah> byPosition = new HashMap<>();
+        int start = 0;
+        if (old != null) {
+            start = old.covered;
+            for (int pos : old.positions) {
+                Ewah map = old.bitmap(pos);
+                positions.add(pos);
+                maps.add(map);
+                byPosition.put(pos, map);
+            }
+        }
+        // Parents come first in the graph, so the bitmaps a new bitmap is
+        // built from are always ready.
+        for (int pos = start; pos < graph.size(); pos++) {
+            if (graph.generation(pos) % STRIDE == 0) {
+                long[] bits = reach(graph, pos, byPosition::get);
+                Ewah map = Ewah.compress(bits, bits.length);
+                positions.add(pos);
+                maps.add(map);
+                byPosition.put(pos, map);
+            }
+        }
+
+        File tmp = tempFile(Repository.GITLET_DIR, "bitmaps");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.size());
+            out.writeInt(positions.size());
+            long offset = HEADER_SIZE + 8L * positions.size();
+            for (int i = 0; i < positions.size(); i++) {
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("bitmaps too large");
+                }
+                out.writeInt(positions.get(i));
+                out.writeInt((int) offset);
+                offset += 4 + 8L * maps.get(i).size();
+            }
+            for (Ewah map : maps) {
+                map.write(out);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw error("Failed to write bitmaps: %s", excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), BITMAP_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Failed to write bitmaps: %s", excp.getMessage());
+        }
+    }
+
+    /** Forget the bitmaps, e.g. after the commit-graph was rebuilt. */
+    static void delete() {
+        bitmaps = null;
+        BITMAP_FILE.delete();
+    }
+}
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** Represents the commits decoded by this process, keyed by full id.
+ *  A command reads the same commits again and again (the heads of both
+ *  branches and their split point in merge, the parent of each new commit),
+ *  so decoded commits are kept, least recently used first, up to a total
+ *  estimated size of cache.commits bytes (64 MB by default). The size of a
+ *  commit grows once its file table is decoded, so it is weighed again on
+ *  every hit. Commits are content-addressed and never change once written,
+ *  so entries are never invalidated, only evicted; the cache is only
+ *  cleared when gc deletes commits.
+ *
+ *  Hits and misses are counted for the whole process; Trace reports them
+ *  per command.
+ *
+ *  @author fqcd
+ */
+class CommitCache {
+    /** The default limit of the total size of the cached commits. */
+    static final long DEFAULT_LIMIT = 64 << 20;
+
+    /** A cached commit and its size when last weighed. */
+    private static class Entry {
+        final Commit commit;
+        long size;
+
+        Entry(Commit commit) {
+            this.commit = commit;
+            this.size = commit.footprint();
+        }
+    }
+
+    /** The cached commits by full id, least recently used first. */
+    private static final LinkedHashMap<String, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The total size of the cached commits. */
+    private static long size = 0;
+
+    /** The limit of size, or -1 until read from the config. */
+    private static long limit = -1;
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    /** Returns the cached commit with full id UID, or null. */
+    static synchronized Commit get(String uid) {
+        Entry e = ENTRIES.get(uid);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        long newSize = e.commit.footprint();
+        if (newSize != e.size) {
+            size += newSize - e.size;
+            e.size = newSize;
+            evict();
+        }
+        return e.commit;
+    }
+
+    /** Cache COMMIT, whose full id is UID. */
+    static synchronized void put(String uid, Commit commit) {
+        Entry e = new Entry(commit);
+        Entry old = ENTRIES.put(uid, e);
+        if (old != null) {
+            size -= old.size;
+        }
+        size += e.size;
+        evict();
+    }
+
+    /** Evict the least recently used commits until the cache fits its limit,
+     *  always keeping the most recent one. */
+    private static void evict() {
+        if (limit < 0) {
+            limit = Config.commitCacheSize();
+        }
+        Iterator<Entry> it = ENTRIES.values().iterator();
+        while (size > limit && ENTRIES.size() > 1) {
+            size -= it.next().size;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /** Forget all cached commits. */
+    static synchronized void clear() {
+        ENTRIES.clear();
+        size = 0;
+    }
+
+    static synchronized long hits() {
+        return hits;
+    }
+
+    static synchronized long misses() {
+        return misses;
+    }
+
+    static synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the total estimated size of the cached commits. */
+    static synchronized long size() {
+        return size;
+    }
+}
@@ -0,0 +1,332 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Represents the commit-graph file.
+ *  The commit-graph is a table of fixed-width records, one per commit, holding
+ *  the commit id, the positions of its parents in the table, its generation
+ *  number and its commit time. Records are appended in topological order (a
+ *  parent always comes before its children), so parents are referred to by
+ *  position and ancestry walks never touch commit objects. The file is
+ *  memory-mapped for reading.
+ *
+ *  @author fqcd
+ */
+class CommitGraph {
+    /** The commit-graph file. */
+    static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+
+    /** Position used for a missing parent. */
+    static final int NONE = -1;
+
+    /** Magic number of the file ("GCGR"). */
+    private static final int MAGIC = 0x47434752;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header: magic and version. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Size of one record: id, parent1, parent2, generation and time. */
+    private static final int RECORD_SIZE = ID_BYTES + 4 + 4 + 4 + 8;
+
+    /** The graph as of its last reading, or null. */
+    private static CommitGraph graph = null;
+
+    /** The mapped contents of the file. */
+    private final MappedByteBuffer buf;
+
+    /** Number of commits in the graph. */
+    private final int count;
+
+    private CommitGraph(MappedByteBuffer buf) {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw error("Bad commit-graph file");
+        }
+        count = (buf.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /** Returns the commit-graph of the repository, building it from the
+     *  commit objects if the repository does not have one yet. */
+    static CommitGraph read() {
+        if (graph == null) {
+            if (!GRAPH_FILE.exists()) {
+                rebuild();
+            }
+            try (FileChannel ch = FileChannel.open(GRAPH_FILE.toPath())) {
+                graph = new CommitGraph(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (IOException excp) {
+                throw error("Failed to read commit-graph: %s", excp.getMessage());
+            }
+        }
+        return graph;
+    }
+
+    /** Forget the graph read, so that it is read again on next use. */
+    static void forget() {
+        graph = null;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the position of the commit with full id UID, or NONE. */
+    int indexOf(String uid) {
+        return CommitIndex.read(this).indexOf(uid);
+    }
+
+    /** Returns true if the commit-graph lists the commit with full id UID.
+     *  The graph is not built if the repository does not have one yet. */
+    static boolean contains(String uid) {
+        return GRAPH_FILE.exists() && read().indexOf(uid) != NONE;
+    }
+
+    /** Returns the position of the commit with full id UID, appending it and
+     *  the ancestors of it the graph does not list yet (e.g. commits written
+     *  by an older gitlet) if the graph does not contain it, which takes the
+     *  exclusive lock (see RepoLock). Returns NONE if the commit does not
+     *  exist. */
+    static int find(String uid) {
+        int pos = read().indexOf(uid);
+        if (pos == NONE) {
+            Commit c = readCommit(uid);
+            if (c == null) {
+                return NONE;
+            }
+            appendMissing(c);
+            pos = read().indexOf(uid);
+        }
+        return pos;
+    }
+
+    /** Returns the full id of the commit at POS. */
+    String idAt(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        int base = HEADER_SIZE + pos * RECORD_SIZE;
+        for (int i = 0; i < ID_BYTES; i++) {
+            id[i] = buf.get(base + i);
+        }
+        return Pack.bytesToHex(id);
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or NONE. */
+    int parent1(int pos) {
+        return buf.getInt(HEADER_SIZE + pos * RECORD_SIZE + ID_BYTES);
+    }
+
+    /** Returns the position of the second parent of the commit at POS, or NONE. */
+    int parent2(int pos) {
+        return buf.getInt(HEADER_SIZE + pos * RECORD_SIZE + ID_BYTES + 4);
+    }
+
+    /** Returns the generation number of the commit at POS: 1 for a root
+     *  commit, otherwise one more than the largest generation of its parents. */
+    int generation(int pos) {
+        return buf.getInt(HEADER_SIZE + pos * RECORD_SIZE + ID_BYTES + 8);
+    }
+
+    /** Returns the commit time of the commit at POS, in milliseconds. */
+    long time(int pos) {
+        return buf.getLong(HEADER_SIZE + pos * RECORD_SIZE + ID_BYTES + 12);
+    }
+
+    /** Append commit C, after those of its ancestors the graph does not list
+     *  yet. */
+    static void append(Commit c) {
+        if (!GRAPH_FILE.exists()) {
+            if (c.parent1 != null) {
+                rebuild();
+                return;
+            }
+            writeHeader(GRAPH_FILE);
+        }
+        appendMissing(c);
+    }
+
+    /** Append TIP and its ancestors that are not in the graph, in depth-first
+     *  post-order so that parents are written before children. Only the
+     *  commits missing are read, however long the history before them. */
+    private static void appendMissing(Commit tip) {
+        CommitGraph g = read();
+        if (g.indexOf(tip.id) != NONE) {
+            return;
+        }
+        // Records are appended in place, so no reader may do it.
+        RepoLock.requireExclusive();
+        Map<String, Integer> positions = new HashMap<>();
+        Map<String, Integer> generations = new HashMap<>();
+        Deque<Commit> stack = new ArrayDeque<>();
+        stack.push(tip);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(GRAPH_FILE, true)))) {
+            while (!stack.isEmpty()) {
+                Commit c = stack.peek();
+                if (positions.containsKey(c.id)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String p : Arrays.asList(c.parent2, c.parent1)) {
+                    if (p != null && !positions.containsKey(p) && g.indexOf(p) == NONE) {
+                        Commit parent = readCommit(p);
+                        if (parent != null) {
+                            stack.push(parent);
+                            ready = false;
+                        }
+                    }
+                }
+                if (!ready) {
+                    continue;
+                }
+                stack.pop();
+                int p1 = g.positionOf(c.parent1, positions);
+                int p2 = g.positionOf(c.parent2, positions);
+                int gen = 1;
+                if (p1 != NONE) {
+                    gen = Math.max(gen, g.generationOf(p1, c.parent1, generations) + 1);
+                }
+                if (p2 != NONE) {
+                    gen = Math.max(gen, g.generationOf(p2, c.parent2, generations) + 1);
+                }
+                positions.put(c.id, g.count + positions.size());
+                generations.put(c.id, gen);
+                writeRecord(out, c.id, p1, p2, gen, c.getTime());
+            }
+        } catch (IOException excp) {
+            throw error("Failed to write commit-graph: %s", excp.getMessage());
+        }
+        graph = null;
+    }
+
+    /** Returns the position of the commit UID (which may be null), either in
+     *  this graph or among ADDED, the positions of the commits being
+     *  appended to it, or NONE. */
+    private int positionOf(String uid, Map<String, Integer> added) {
+        if (uid == null) {
+            return NONE;
+        }
+        Integer pos = added.get(uid);
+        return pos != null ? pos : indexOf(uid);
+    }
+
+    /** Returns the generation number of the commit UID at POS, which is
+     *  either in this graph or, past its end, among ADDED, the generations of
+     *  the commits being appended to it. */
+    private int generationOf(int pos, String uid, Map<String, Integer> added) {
+        return pos < count ? generation(pos) : added.get(uid);
+    }
+
+    /** Build the commit-graph again from all commit objects. */
+    static void rebuild() {
+        RepoLock.requireExclusive();
+        List<String> ids = objectIds(Repository.COMMIT_DIR);
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : ids) {
+            commits.put(id, readCommit(id));
+        }
+
+        // Depth-first post-order, so that parents are written before children.
+        Map<String, Integer> positions = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String root : ids) {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (positions.containsKey(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = commits.get(id);
+                boolean ready = true;
+                for (String p : Arrays.asList(c.parent2, c.parent1)) {
+                    if (p != null && commits.containsKey(p) && !positions.containsKey(p)) {
+                        stack.push(p);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    positions.put(id, order.size());
+                    order.add(id);
+                }
+            }
+        }
+
+        File tmp = tempFile(Repository.GITLET_DIR, "commit-graph");
+        writeHeader(tmp);
+        int[] generations = new int[order.size()];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp, true)))) {
+            for (int pos = 0; pos < order.size(); pos++) {
+                Commit c = commits.get(order.get(pos));
+                int p1 = c.parent1 == null ? NONE : positions.getOrDefault(c.parent1, NONE);
+                int p2 = c.parent2 == null ? NONE : positions.getOrDefault(c.parent2, NONE);
+                int gen = 1;
+                if (p1 != NONE) {
+                    gen = Math.max(gen, generations[p1] + 1);
+                }
+                if (p2 != NONE) {
+                    gen = Math.max(gen, generations[p2] + 1);
+                }
+                generations[pos] = gen;
+                writeRecord(out, c.id, p1, p2, gen, c.getTime());
+            }
+        } catch (IOException excp) {
+            throw error("Failed to write commit-graph: %s", excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), GRAPH_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Failed to write commit-graph: %s", excp.getMessage());
+        }
+        graph = null;
+        CommitIndex.delete();
+        CommitBitmaps.delete();
+    }
+
+    /** Create FILE containing only the header. */
+    static void writeHeader(File file) {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException excp) {
+            throw error("Failed to write commit-graph: %s", excp.getMessage());
+        }
+    }
+
+    /** Write one record to OUT. */
+    static void writeRecord(DataOutputStream out, String uid, int p1, int p2,
+                                    int gen, long time) throws IOException {
+        out.write(Pack.hexToBytes(uid));
+        out.writeInt(p1);
+        out.writeInt(p2);
+        out.writeInt(gen);
+        out.writeLong(time);
+    }
+}
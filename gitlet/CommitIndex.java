@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Represents the sorted index of commit ids.
+ *  The index lists the ids of the first COVERED commits of the commit-graph in
+ *  sorted order, each with its position in the graph, behind a fanout table
+ *  of the number of ids below each first byte. It is memory-mapped, so full
+ *  and abbreviated ids are found with a binary search over a narrow range.
+ *
+ *  Commits appended to the graph after the index was written form a short
+ *  tail that is searched linearly. Once the tail grows past TAIL_LIMIT the
+ *  index is written again, merging the sorted tail into it.
+ *
+ *  @author fqcd
+ */
+class CommitIndex {
+    /** The index file. */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "commit-index");
+
+    /** Largest number of graph commits left out of the index. */
+    static final int TAIL_LIMIT = 256;
+
+    /** Magic number of the file ("GCIX"). */
+    private static final int MAGIC = 0x47434958;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Size of the fanout table: one int per first byte. */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /** Size of the file header: magic, version, covered count and fanout. */
+    private static final int HEADER_SIZE = 12 + FANOUT_SIZE;
+
+    /** Size of one record: id and graph position. */
+    private static final int RECORD_SIZE = ID_BYTES + 4;
+
+    /** The index as of its last reading, or null. */
+    private static CommitIndex index = null;
+
+    /** The commit-graph this index was read for. */
+    private final CommitGraph graph;
+
+    /** The mapped contents of the file. */
+    private final MappedByteBuffer buf;
+
+    /** Number of graph commits listed in the file. */
+    private final int covered;
+
+    private CommitIndex(CommitGraph graph, MappedByteBuffer buf) {
+        this.graph = graph;
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw error("Bad commit-index file");
+        }
+        covered = buf.getInt(8);
+    }
+
+    /** Returns the index of GRAPH, writing it first if it is missing, does not
+     *  match GRAPH, or leaves too many commits of GRAPH out. */
+    static CommitIndex read(CommitGraph graph) {
+        if (index != null && index.graph == graph) {
+            return index;
+        }
+        index = null;
+        CommitIndex res = INDEX_FILE.exists() ? map(graph) : null;
+        if (res == null || res.covered > graph.size()
+                || graph.size() - res.covered > TAIL_LIMIT) {
+            write(graph, res);
+            res = map(graph);
+        }
+        index = res;
+        return res;
+    }
+
+    /** Returns the full ids of all commits starting with PREFIX, in sorted order. */
+    static List<String> matchAll(String prefix) {
+        return read(CommitGraph.read()).match(prefix);
+    }
+
+    /** Returns the graph position of the commit with full id UID, or
+     *  CommitGraph.NONE. */
+    int indexOf(String uid) {
+        int rec = lowerBound(uid);
+        if (rec < covered && comparePrefix(rec, uid) == 0) {
+            return buf.getInt(HEADER_SIZE + rec * RECORD_SIZE + ID_BYTES);
+        }
+        for (int pos = covered; pos < graph.size(); pos++) {
+            if (graph.idAt(pos).equals(uid)) {
+                return pos;
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the full ids of the commits starting with PREFIX, in sorted order. */
+    List<String> match(String prefix) {
+        List<String> res = new ArrayList<>();
+        for (int rec = lowerBound(prefix); rec < covered && comparePrefix(rec, prefix) == 0; rec++) {
+            res.add(idAt(rec));
+        }
+        for (int pos = covered; pos < graph.size(); pos++) {
+            String id = graph.idAt(pos);
+            if (id.startsWith(prefix)) {
+                res.add(id);
+            }
+        }
+        res.sort(null);
+        return res;
+    }
+
+    /** Returns the first record whose id is not below PREFIX, searching only
+     *  the records that share its first byte. */
+    private int lowerBound(String prefix) {
+        int first = Integer.parseInt(prefix.substring(0, 2), 16);
+        int lo = first == 0 ? 0 : buf.getInt(12 + (first - 1) * 4);
+        int hi = buf.getInt(12 + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the leading hex digits of the id of record REC with PREFIX. */
+    private int comparePrefix(int rec, String prefix) {
+        int base = HEADER_SIZE + rec * RECORD_SIZE;
+        for (int i = 0; i < prefix.length(); i++) {
+            int b = buf.get(base + i / 2) & 0xff;
+            int nibble = (i % 2 == 0) ? b >>> 4 : b & 0xf;
+            int c = nibble - Character.digit(prefix.charAt(i), 16);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the full id of record REC. */
+    private String idAt(int rec) {
+        byte[] id = new byte[ID_BYTES];
+        buf.get(HEADER_SIZE + rec * RECORD_SIZE, id);
+        return Pack.bytesToHex(id);
+    }
+
+    /** Returns the index file mapped for GRAPH. */
+    private static CommitIndex map(CommitGraph graph) {
+        try (FileChannel ch = FileChannel.open(INDEX_FILE.toPath())) {
+            return new CommitIndex(graph, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException excp) {
+            throw error("Failed to read commit-index: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the index of all commits of GRAPH, merging the records of OLD (if
+     *  it still matches GRAPH) with the sorted tail. */
+    private static void write(CommitGraph graph, CommitIndex old) {
+        RepoLock.requireExclusive();
+        int start = (old == null || old.covered > graph.size()) ? 0 : old.covered;
+        String[] tail = new String[graph.size() - start];
+        for (int pos = start; pos < graph.size(); pos++) {
+            tail[pos - start] = graph.idAt(pos) + pos;
+        }
+        Arrays.sort(tail);
+
+        int[] fanout = new int[256];
+        byte[] id = new byte[ID_BYTES];
+        File tmp = tempFile(Repository.GITLET_DIR, "commit-index");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.size());
+            out.write(new byte[FANOUT_SIZE]);
+            int i = 0;
+            int j = 0;
+            int oldCount = start == 0 ? 0 : old.covered;
+            while (i < oldCount || j < tail.length) {
+                int pos;
+                if (j == tail.length || (i < oldCount
+                        && old.idAt(i).compareTo(tail[j].substring(0, UID_LENGTH)) < 0)) {
+                    old.buf.get(HEADER_SIZE + i * RECORD_SIZE, id);
+                    pos = old.buf.getInt(HEADER_SIZE + i * RECORD_SIZE + ID_BYTES);
+                    i++;
+                } else {
+                    id = Pack.hexToBytes(tail[j].substring(0, UID_LENGTH));
+                    pos = Integer.parseInt(tail[j].substring(UID_LENGTH));
+                    j++;
+                }
+                out.write(id);
+                out.writeInt(pos);
+                fanout[id[0] & 0xff]++;
+            }
+        } catch (IOException excp) {
+            throw error("Failed to write commit-index: %s", excp.getMessage());
+        }
+
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer table = ByteBuffer.allocate(FANOUT_SIZE);
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                table.putInt(total);
+            }
+            table.flip();
+            ch.write(table, 12);
+            Files.move(tmp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Failed to write commit-index: %s", excp.getMessage());
+        }
+    }
+
+    /** Forget the index, e.g. after the commit-graph was rebuilt. */
+    static void delete() {
+        index = null;
+        INDEX_FILE.delete();
+    }
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static gitlet.Utils.*;
+
+/** Represents the commit journal.
+ *  The journal is an append-only file holding one record per commit, in the
+ *  order the commits were written: the commit id, its parents, its date and
+ *  its message. It holds everything global-log prints, so global-log reads it
+ *  sequentially instead of opening every commit object.
+ *
+ *  @author fqcd
+ */
+class CommitJournal {
+    /** The journal file. */
+    static final File JOURNAL_FILE = join(Repository.GITLET_DIR, "journal");
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Append commit C to the journal, creating the journal from all commit
+     *  objects if the repository does not have one yet. A commit written
+     *  again (same files, message, parents and second) is in the journal
+     *  already, as the commit-graph tells, and is not appended twice. */
+    static void append(Commit c) {
+        RepoLock.requireExclusive();
+        if (!JOURNAL_FILE.exists() && c.parent1 != null) {
+            rebuild();
+            return;
+        }
+        if (CommitGraph.contains(c.id)) {
+            return;
+        }
+        // Each record goes to the file in a single write, so that a crash
+        // never leaves half a record in front of later ones.
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE, true)) {
+            writeRecord(new DataOutputStream(record), c);
+            record.writeTo(out);
+        } catch (IOException excp) {
+            throw error("Failed to write journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the journal again from all commit objects, loose or packed. */
+    static void rebuild() {
+        RepoLock.requireExclusive();
+        File tmp = tempFile(Repository.GITLET_DIR, "journal");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), BUFFER_SIZE))) {
+            for (String id : objectIds(Repository.COMMIT_DIR)) {
+                writeRecord(out, readCommit(id));
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw error("Failed to write journal: %s", excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), JOURNAL_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Failed to write journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Print the log entry of every commit in the journal, in the format of
+     *  Commit.outputLog, streaming the journal through buffers of fixed size. */
+    static void printAll() {
+        if (!JOURNAL_FILE.exists()) {
+            rebuild();
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(JOURNAL_FILE.toPath()), BUFFER_SIZE))) {
+            byte[] id = new byte[ID_BYTES];
+            while (readId(in, id)) {
+                int parents = in.readUnsignedByte();
+                String parent1 = null;
+                String parent2 = null;
+                if (parents > 0) {
+                    parent1 = readId(in);
+                }
+                if (parents > 1) {
+                    parent2 = readId(in);
+                }
+                String date = readString(in);
+                String message = readString(in);
+
+                out.write("===\ncommit ");
+                out.write(Pack.bytesToHex(id));
+                out.write('\n');
+                if (parent2 != null) {
+                    out.write("Merge: " + parent1.substring(0, 7) + " " + parent2.substring(0, 7) + "\n");
+                }
+                out.write(date);
+                out.write('\n');
+                out.write(message);
+                out.write("\n\n");
+            }
+            out.flush();
+        } catch (EOFException excp) {
+            throw error("The journal is truncated; run reindex to rebuild it.");
+        } catch (IOException excp) {
+            throw error("Failed to read journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the record of commit C to OUT. */
+    private static void writeRecord(DataOutputStream out, Commit c) throws IOException {
+        out.write(Pack.hexToBytes(c.id));
+        out.writeByte(c.parent2 != null ? 2 : c.parent1 != null ? 1 : 0);
+        if (c.parent1 != null) {
+            out.write(Pack.hexToBytes(c.parent1));
+        }
+        if (c.parent2 != null) {
+            out.write(Pack.hexToBytes(c.parent2));
+        }
+        writeString(out, c.getDate());
+        writeString(out, c.getMessage());
+    }
+
+    /** Read the next id of IN into ID. Returns false at the end of IN. */
+    private static boolean readId(DataInputStream in, byte[] id) throws IOException {
+        int n = in.readNBytes(id, 0, ID_BYTES);
+        if (n == 0) {
+            return false;
+        } else if (n < ID_BYTES) {
+            throw new EOFException();
+        }
+        return true;
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[ID_BYTES];
+        in.readFully(id);
+        return Pack.bytesToHex(id);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/** Represents the per-repository configuration.
+ *  The configuration is a plain properties file at .gitlet/config, so that it
+ *  can be read and edited without gitlet. Repositories created before the
+ *  file existed simply have no settings and use the defaults.
+ *
+ *  @author fqcd
+ */
+public class Config {
+    /** The config file. */
+    public static final File CONFIG = Utils.join(Repository.GITLET_DIR, "config");
+
+    /** The version of the object format. Version 0 (no config) stores objects
+     *  raw; version 1 prefixes every stored object with an encoding byte. */
+    public static final String FORMAT = "format";
+
+    /** The deflate level (0-9) used when writing objects. */
+    public static final String COMPRESSION = "compression";
+
+    /** The number of threads used to hash and write working files. */
+    public static final String PARALLELISM = "parallelism";
+
+    /** The longest chain of delta blobs allowed; 0 stores every blob whole. */
+    public static final String DELTA_DEPTH = "delta.depth";
+
+    /** The size in bytes of the largest blob stored as a delta. */
+    public static final String DELTA_MAX_SIZE = "delta.maxsize";
+
+    /** The grace period of gc in seconds: newer objects are never deleted. */
+    public static final String GC_GRACE = "gc.grace";
+
+    /** The size in bytes of the decoded commits kept in memory. */
+    public static final String COMMIT_CACHE = "cache.commits";
+
+    /** The size in bytes of the smallest blob stored in chunks; 0 stores
+     *  every blob whole. */
+    public static final String CHUNK_THRESHOLD = "chunk.threshold";
+
+    /** The size in bytes of the largest file merged line by line. */
+    public static final String MERGE_MAX_SIZE = "merge.maxsize";
+
+    /** The current object format version. */
+    public static final int CUR_FORMAT = 1;
+
+    /** The settings, loaded on first use. */
+    private static Properties props = null;
+
+    private static Properties props() {
+        if (props == null) {
+            props = new Properties();
+            if (CONFIG.isFile()) {
+                try (InputStream in = Files.newInputStream(CONFIG.toPath())) {
+                    props.load(in);
+                } catch (IOException excp) {
+                    throw Utils.error("Failed to read config: %s", excp.getMessage());
+                }
+            }
+        }
+        return props;
+    }
+
+    /** Returns the value of KEY, or null if it is not set. */
+    public static String get(String key) {
+        return props().getProperty(key);
+    }
+
+    /** Returns the value of KEY as an int, or DEFAULTVALUE if it is not set
+     *  or is not a number. */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /** Returns true if KEY is set to "true" (ignoring case). */
+    public static boolean getBoolean(String key) {
+        String value = get(key);
+        return value != null && Boolean.parseBoolean(value.trim());
+    }
+
+    /** Set KEY to VALUE and write the config file. It is written to a
+     *  temporary file that then replaces it, so readers under a shared lock
+     *  never see it half written. */
+    public static void set(String key, String value) {
+        props().setProperty(key, value);
+        File tmp = Utils.tempFile(Repository.GITLET_DIR, CONFIG.getName());
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                props.store(out, null);
+            }
+            Utils.replaceFile(tmp, CONFIG);
+        } catch (IOException excp) {
+            throw Utils.error("Failed to write config: %s", excp.getMessage());
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Returns the object format version of the repository. */
+    public static int format() {
+        return getInt(FORMAT, 0);
+    }
+
+    /** Returns the number of threads used to hash and write working files,
+     *  by default the number of available processors. */
+    public static int parallelism() {
+        return Math.max(1, getInt(PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Returns the deflate level used when writing objects. */
+    public static int compression() {
+        return Math.max(0, Math.min(9, getInt(COMPRESSION, 6)));
+    }
+
+    /** Returns the longest chain of delta blobs allowed, 10 by default. */
+    public static int deltaDepth() {
+        return Math.max(0, Math.min(255, getInt(DELTA_DEPTH, 10)));
+    }
+
+    /** Returns the size of the largest blob stored as a delta, 16 MB by
+     *  default. Storing or reading a delta holds the whole blob and its base
+     *  in memory, so this bounds the heap a delta takes. */
+    public static int deltaMaxSize() {
+        return Math.max(0, getInt(DELTA_MAX_SIZE, 16 << 20));
+    }
+
+    /** Returns the grace period of gc in seconds, one hour by default. */
+    public static int gcGrace() {
+        return Math.max(0, getInt(GC_GRACE, 3600));
+    }
+
+    /** Returns the size of the decoded commits kept in memory, 64 MB by default. */
+    public static long commitCacheSize() {
+        return Math.max(0, getInt(COMMIT_CACHE, (int) CommitCache.DEFAULT_LIMIT));
+    }
+
+    /** Returns the size of the smallest blob stored in chunks, 8 MB by default. */
+    public static int chunkThreshold() {
+        return Math.max(0, getInt(CHUNK_THRESHOLD, 8 << 20));
+    }
+
+    /** Returns the size of the largest file merged line by line, 16 MB by default. */
+    public static int mergeMaxSize() {
+        return Math.max(0, getInt(MERGE_MAX_SIZE, 16 << 20));
+    }
+}
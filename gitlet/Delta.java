@@ -0,0 +1,433 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** Represents blobs stored as deltas against other blobs.
+ *  A delta blob is stored with the encoding byte DELTA, followed by the raw
+ *  uid of its base blob, its depth (one more than the depth of its base; a
+ *  whole blob has depth 0), the length of its contents and the deflated
+ *  instructions that rebuild the contents from the base: each instruction
+ *  either copies a range of the base or inserts literal bytes.
+ *
+ *  Instructions are found by indexing the base in blocks of BLOCK bytes by a
+ *  rolling hash and sliding a window of the same size over the new contents;
+ *  a window found in the base is extended both ways as far as the bytes agree.
+ *  Reading a delta blob reads its base first, so chains are kept no deeper
+ *  than the configured depth, and bases are kept in a cache of bounded size.
+ *
+ *  @author fqcd
+ */
+class Delta {
+    /** Size of the blocks of the base that are indexed. */
+    static final int BLOCK = 16;
+
+    /** Blobs smaller than this are always stored whole. */
+    static final int MIN_SIZE = 64;
+
+    /** Total size of the bases kept in memory. */
+    static final long CACHE_BYTES = 64L << 20;
+
+    /** Number of candidate blocks compared per window. */
+    private static final int CHAIN_LIMIT = 32;
+
+    /** Instruction byte of a copy; other instruction bytes, from 1 to
+     *  MAX_INSERT, insert that many literal bytes. */
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 0x7f;
+
+    /** Multiplier of the rolling hash, and its power BLOCK - 1. */
+    private static final int PRIME = 0x01000193;
+    private static final int POWER;
+
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK - 1; i++) {
+            p *= PRIME;
+        }
+        POWER = p;
+    }
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Contents of the bases read recently, by uid, least recently used first. */
+    private static final LinkedHashMap<String, byte[]> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total length of the contents in CACHE. */
+    private static long cachedBytes = 0;
+
+    /** Store CONTENTS as the blob UID, a delta against the blob BASEID, and
+     *  return true, unless deltas are disabled, the contents are too small or
+     *  too large, the chain through BASEID is already as deep as allowed, or
+     *  the delta is not much smaller than the contents, in which case nothing
+     *  is stored and false is returned. */
+    static boolean save(byte[] contents, String uid, String baseId) {
+        if (baseId == null || Config.format() == 0 || contents.length < MIN_SIZE
+                || contents.length > Config.deltaMaxSize()) {
+            return false;
+        }
+        int depth = depthOf(baseId) + 1;
+        if (depth > Config.deltaDepth()) {
+            return false;
+        }
+        long baseLength = lengthOf(baseId, Config.deltaMaxSize());
+        if (baseLength < MIN_SIZE || baseLength > Config.deltaMaxSize()) {
+            return false;
+        }
+        byte[] base = base(baseId);
+        if (base == null) {
+            return false;
+        }
+        byte[] delta = encode(base, contents, contents.length / 2);
+        if (delta == null) {
+            return false;
+        }
+
+        File tmp = tempFile(Repository.OBJECT_DIR, "delta");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeByte(DELTA);
+                out.write(Pack.hexToBytes(baseId));
+                out.writeByte(depth);
+                out.writeLong(contents.length);
+                Deflater deflater = new Deflater(Config.compression());
+                try {
+                    DeflaterOutputStream z = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                    z.write(delta);
+                    z.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+            Trace.fileOpened();
+            Trace.written(tmp.length());
+            replaceFile(tmp, looseFile(uid, Repository.BLOB_DIR));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            tmp.delete();
+        }
+        return true;
+    }
+
+    /** Returns a stream of the contents of the delta blob read from IN, just
+     *  after its encoding byte. */
+    static InputStream decode(InputStream in) throws IOException {
+        try (DataInputStream data = new DataInputStream(in)) {
+            byte[] id = new byte[ID_BYTES];
+            data.readFully(id);
+            data.readUnsignedByte();
+            long length = data.readLong();
+            String baseId = Pack.bytesToHex(id);
+            byte[] base = base(baseId);
+            if (base == null) {
+                throw new IOException("missing delta base " + baseId);
+            }
+            InputStream ops = new BufferedInputStream(new InflaterInputStream(data), BUFFER_SIZE);
+            return new ByteArrayInputStream(apply(base, ops, length));
+        }
+    }
+
+    /** Returns the depth of the delta chain of the blob UID, 0 if it is stored
+     *  whole or does not exist. */
+    static int depthOf(String uid) {
+        try (InputStream in = openStored(uid, Repository.BLOB_DIR)) {
+            if (in == null || Config.format() == 0 || in.read() != DELTA) {
+                return 0;
+            }
+            in.skipNBytes(ID_BYTES);
+            return in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uid of the base of the blob UID, or null if it is stored
+     *  whole or does not exist. */
+    static String baseOf(String uid) {
+        try (InputStream in = openStored(uid, Repository.BLOB_DIR)) {
+            if (in == null || Config.format() == 0 || in.read() != DELTA) {
+                return null;
+            }
+            return Pack.bytesToHex(in.readNBytes(ID_BYTES));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the length of the contents of the blob UID, or -1 if there is
+     *  no such blob. Delta and chunked blobs store their length ahead of their
+     *  contents; the contents of other blobs are counted as they stream by,
+     *  but no further than LIMIT + 1 bytes, which is returned for any longer
+     *  blob. A base is thus never loaded just to find it too large. */
+    static long lengthOf(String uid, long limit) {
+        synchronized (CACHE) {
+            byte[] cached = CACHE.get(uid);
+            if (cached != null) {
+                return cached.length;
+            }
+        }
+        try (InputStream in = openStored(uid, Repository.BLOB_DIR)) {
+            if (in == null) {
+                return -1;
+            }
+            if (Config.format() == 0) {
+                return count(in, limit);
+            }
+            int encoding = in.read();
+            switch (encoding) {
+                case DELTA:
+                    in.skipNBytes(ID_BYTES + 1);
+                    return new DataInputStream(in).readLong();
+                case CHUNKED:
+                    return new DataInputStream(in).readLong();
+                case DEFLATED:
+                    try (InputStream z = new InflaterInputStream(in)) {
+                        return count(z, limit);
+                    }
+                default:
+                    return count(in, limit);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of bytes left in IN, or LIMIT + 1 if there are
+     *  more than LIMIT. */
+    private static long count(InputStream in, long limit) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long n = 0;
+        int r;
+        while (n <= limit && (r = in.read(buf)) > 0) {
+            n += r;
+        }
+        return Math.min(n, limit + 1);
+    }
+
+    /** Returns the contents of the blob UID from the cache, reading and
+     *  caching them if needed, or null if there is no such blob. */
+    private static byte[] base(String uid) {
+        synchronized (CACHE) {
+            byte[] cached = CACHE.get(uid);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (!hasObject(uid, Repository.BLOB_DIR)) {
+            return null;
+        }
+        byte[] contents = loadObject(uid, Repository.BLOB_DIR);
+        if (contents.length <= CACHE_BYTES) {
+            synchronized (CACHE) {
+                if (CACHE.put(uid, contents) == null) {
+                    cachedBytes += contents.length;
+                }
+                Iterator<Map.Entry<String, byte[]>> it = CACHE.entrySet().iterator();
+                while (cachedBytes > CACHE_BYTES && it.hasNext()) {
+                    cachedBytes -= it.next().getValue().length;
+                    it.remove();
+                }
+            }
+        }
+        return contents;
+    }
+
+    /** Drop all cached bases. */
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /** Returns the instructions rebuilding TARGET from BASE, or null if they
+     *  would take more than LIMIT bytes. */
+    static byte[] encode(byte[] base, byte[] target, int limit) {
+        int blocks = base.length / BLOCK;
+        int bits = 4;
+        while ((1 << bits) < 2 * blocks && bits < 30) {
+            bits++;
+        }
+        int[] head = new int[1 << bits];
+        Arrays.fill(head, -1);
+        int[] next = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int slot = slot(hash(base, b * BLOCK), bits);
+            next[b] = head[slot];
+            head[slot] = b;
+        }
+
+        Encoder out = new Encoder(target, limit);
+        int pos = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            int chain = 0;
+            for (int b = head[slot(h, bits)]; b >= 0 && chain < CHAIN_LIMIT; b = next[b], chain++) {
+                int offset = b * BLOCK;
+                int length = 0;
+                int max = Math.min(base.length - offset, target.length - pos);
+                while (length < max && base[offset + length] == target[pos + length]) {
+                    length++;
+                }
+                if (length >= BLOCK && length > bestLength) {
+                    bestOffset = offset;
+                    bestLength = length;
+                }
+            }
+            if (bestOffset < 0) {
+                if (pos + BLOCK < target.length) {
+                    h = (h - (target[pos] & 0xff) * POWER) * PRIME + (target[pos + BLOCK] & 0xff);
+                }
+                pos++;
+                continue;
+            }
+            // Take back the bytes before the match that agree with the base.
+            while (bestOffset > 0 && pos > out.pending
+                    && base[bestOffset - 1] == target[pos - 1]) {
+                bestOffset--;
+                pos--;
+                bestLength++;
+            }
+            if (!out.insert(pos) || !out.copy(bestOffset, bestLength)) {
+                return null;
+            }
+            pos += bestLength;
+            if (pos + BLOCK <= target.length) {
+                h = hash(target, pos);
+            }
+        }
+        if (!out.insert(target.length)) {
+            return null;
+        }
+        return out.bytes.toByteArray();
+    }
+
+    /** Writes instructions, keeping track of the literal bytes not yet
+     *  inserted and of the size limit. */
+    private static class Encoder {
+        private final byte[] target;
+        private final int limit;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** The start of the literal bytes of TARGET not yet inserted. */
+        private int pending = 0;
+
+        Encoder(byte[] target, int limit) {
+            this.target = target;
+            this.limit = limit;
+        }
+
+        /** Insert the bytes of target from pending up to END. Returns false
+         *  if the instructions have grown past the limit. */
+        boolean insert(int end) {
+            while (pending < end) {
+                int n = Math.min(MAX_INSERT, end - pending);
+                bytes.write(n);
+                bytes.write(target, pending, n);
+                pending += n;
+            }
+            return bytes.size() <= limit;
+        }
+
+        /** Copy LENGTH bytes of the base from OFFSET. */
+        boolean copy(int offset, int length) {
+            bytes.write(COPY);
+            writeVarInt(offset);
+            writeVarInt(length);
+            pending += length;
+            return bytes.size() <= limit;
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                bytes.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write(value);
+        }
+    }
+
+    /** Returns the LENGTH bytes built by the instructions read from OPS,
+     *  copying from BASE. */
+    static byte[] apply(byte[] base, InputStream ops, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("corrupt delta: length " + length);
+        }
+        byte[] res = new byte[(int) length];
+        int n = 0;
+        int op;
+        while ((op = ops.read()) != -1) {
+            if (op == COPY) {
+                int offset = readVarInt(ops);
+                int count = readVarInt(ops);
+                if (offset < 0 || count < 0 || offset > base.length - count || count > res.length - n) {
+                    throw new IOException("corrupt delta: bad copy");
+                }
+                System.arraycopy(base, offset, res, n, count);
+                n += count;
+            } else if (op >= 1 && op <= MAX_INSERT && op <= res.length - n) {
+                if (ops.readNBytes(res, n, op) != op) {
+                    throw new EOFException("corrupt delta: truncated insert");
+                }
+                n += op;
+            } else {
+                throw new IOException("corrupt delta: bad instruction " + op);
+            }
+        }
+        if (n != res.length) {
+            throw new IOException("corrupt delta: " + n + " of " + length + " bytes");
+        }
+        return res;
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("corrupt delta: truncated copy");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupt delta: bad number");
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA from OFFSET. */
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            h = h * PRIME + (data[offset + i] & 0xff);
+        }
+        return h;
+    }
+
+    private static int slot(int hash, int bits) {
+        return (hash * 0x9e3779b9) >>> (32 - bits);
+    }
+}
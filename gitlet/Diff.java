@@ -0,0 +1,479 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line diff and three-way line merge.
+ *  Files are split into lines, each keeping its line terminator, and lines are
+ *  compared by content. The diff is Myers' O((N+M)D) algorithm in its linear
+ *  space form, which finds the middle snake of the edit graph and recurses on
+ *  both halves. When an edit script gets very long, the search stops at the
+ *  diagonal that reached furthest instead of the exact middle snake, as GNU
+ *  diff does, so that the diff of unrelated large files stays fast; the
+ *  result is then a valid diff that may not be minimal.
+ *
+ *  @author fqcd
+ */
+class Diff {
+    /** The marker lines of a merge conflict, as written by gitlet. */
+    static final String HEAD_MARKER = "<<<<<<< HEAD\n";
+    static final String MIDDLE_MARKER = "=======\n";
+    static final String TAIL_MARKER = ">>>>>>>\n";
+
+    /** Number of context lines printed around each hunk. */
+    static final int CONTEXT = 3;
+
+    /** A region where two line sequences differ: lines [aStart, aEnd) of the
+     *  first are replaced by lines [bStart, bEnd) of the second. */
+    static class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** Returns the lines of CONTENTS, each with its terminating newline if it
+     *  has one. Bytes are kept as chars one to one, so joining the lines gives
+     *  back CONTENTS exactly. */
+    static String[] lines(byte[] contents) {
+        String text = new String(contents, StandardCharsets.ISO_8859_1);
+        List<String> res = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            res.add(text.substring(start, end));
+            start = end;
+        }
+        return res.toArray(new String[0]);
+    }
+
+    /** Returns the line sequences SEQS as arrays of numbers, equal lines
+     *  getting equal numbers, so that lines compare in constant time. */
+    static int[][] intern(String[]... seqs) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[][] res = new int[seqs.length][];
+        for (int s = 0; s < seqs.length; s++) {
+            res[s] = new int[seqs[s].length];
+            for (int i = 0; i < seqs[s].length; i++) {
+                Integer id = ids.putIfAbsent(seqs[s][i], ids.size());
+                res[s][i] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return res;
+    }
+
+    /** Returns the edits turning A into B, in order. */
+    static List<Edit> diff(int[] a, int[] b) {
+        Myers m = new Myers(a, b);
+        m.compare(0, a.length, 0, b.length);
+        List<Edit> res = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !m.changedA[i] && !m.changedB[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int si = i;
+            int sj = j;
+            while (i < a.length && m.changedA[i]) {
+                i++;
+            }
+            while (j < b.length && m.changedB[j]) {
+                j++;
+            }
+            res.add(new Edit(si, i, sj, j));
+        }
+        return res;
+    }
+
+    /** The state of one linear space Myers diff. */
+    private static class Myers {
+        private final int[] a;
+        private final int[] b;
+
+        /** Whether each line of a (b) is deleted (inserted). */
+        private final boolean[] changedA;
+        private final boolean[] changedB;
+
+        /** Furthest x reached on each diagonal k = x - y, searching forwards
+         *  and backwards, indexed by k + offset. */
+        private final int[] fd;
+        private final int[] bd;
+        private final int offset;
+
+        /** Number of rounds after which a search settles for the best
+         *  diagonal so far. */
+        private final int tooExpensive;
+
+        /** The middle point found by the last call of split. */
+        private int xMid;
+        private int yMid;
+
+        Myers(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+            changedA = new boolean[a.length];
+            changedB = new boolean[b.length];
+            offset = b.length + 1;
+            fd = new int[a.length + b.length + 3];
+            bd = new int[a.length + b.length + 3];
+            int expensive = 1;
+            for (long n = a.length + b.length + 3; n != 0; n >>= 2) {
+                expensive <<= 1;
+            }
+            tooExpensive = Math.max(4096, expensive);
+        }
+
+        /** Mark the lines that differ between a[xLo, xHi) and b[yLo, yHi). */
+        void compare(int xLo, int xHi, int yLo, int yHi) {
+            while (true) {
+                while (xLo < xHi && yLo < yHi && a[xLo] == b[yLo]) {
+                    xLo++;
+                    yLo++;
+                }
+                while (xLo < xHi && yLo < yHi && a[xHi - 1] == b[yHi - 1]) {
+                    xHi--;
+                    yHi--;
+                }
+                if (xLo == xHi) {
+                    for (int y = yLo; y < yHi; y++) {
+                        changedB[y] = true;
+                    }
+                    return;
+                } else if (yLo == yHi) {
+                    for (int x = xLo; x < xHi; x++) {
+                        changedA[x] = true;
+                    }
+                    return;
+                }
+                split(xLo, xHi, yLo, yHi);
+                int x = xMid;
+                int y = yMid;
+                // Recurse on the smaller half and loop on the larger one, so
+                // that the stack stays shallow.
+                if (x - xLo + y - yLo < xHi - x + yHi - y) {
+                    compare(xLo, x, yLo, y);
+                    xLo = x;
+                    yLo = y;
+                } else {
+                    compare(x, xHi, y, yHi);
+                    xHi = x;
+                    yHi = y;
+                }
+            }
+        }
+
+        /** Find a point (xMid, yMid) on an optimal (or, for expensive inputs,
+         *  good) path from (xLo, yLo) to (xHi, yHi), strictly inside the box
+         *  when both sequences are not empty. */
+        private void split(int xLo, int xHi, int yLo, int yHi) {
+            int dMin = xLo - yHi;
+            int dMax = xHi - yLo;
+            int fMid = xLo - yLo;
+            int bMid = xHi - yHi;
+            int fMin = fMid;
+            int fMax = fMid;
+            int bMin = bMid;
+            int bMax = bMid;
+            boolean odd = ((fMid - bMid) & 1) != 0;
+            fd[fMid + offset] = xLo;
+            bd[bMid + offset] = xHi;
+
+            for (int c = 1; ; c++) {
+                if (fMin > dMin) {
+                    fd[--fMin - 1 + offset] = -1;
+                } else {
+                    fMin++;
+                }
+                if (fMax < dMax) {
+                    fd[++fMax + 1 + offset] = -1;
+                } else {
+                    fMax--;
+                }
+                for (int d = fMax; d >= fMin; d -= 2) {
+                    int tLo = fd[d - 1 + offset];
+                    int tHi = fd[d + 1 + offset];
+                    int x = tLo >= tHi ? tLo + 1 : tHi;
+                    int y = x - d;
+                    while (x < xHi && y < yHi && a[x] == b[y]) {
+                        x++;
+                        y++;
+                    }
+                    fd[d + offset] = x;
+                    if (odd && bMin <= d && d <= bMax && bd[d + offset] <= x) {
+                        xMid = x;
+                        yMid = y;
+                        return;
+                    }
+                }
+
+                if (bMin > dMin) {
+                    bd[--bMin - 1 + offset] = Integer.MAX_VALUE;
+                } else {
+                    bMin++;
+                }
+                if (bMax < dMax) {
+                    bd[++bMax + 1 + offset] = Integer.MAX_VALUE;
+                } else {
+                    bMax--;
+                }
+                for (int d = bMax; d >= bMin; d -= 2) {
+                    int tLo = bd[d - 1 + offset];
+                    int tHi = bd[d + 1 + offset];
+                    int x = tLo < tHi ? tLo : tHi - 1;
+                    int y = x - d;
+                    while (xLo < x && yLo < y && a[x - 1] == b[y - 1]) {
+                        x--;
+                        y--;
+                    }
+                    bd[d + offset] = x;
+                    if (!odd && fMin <= d && d <= fMax && x <= fd[d + offset]) {
+                        xMid = x;
+                        yMid = y;
+                        return;
+                    }
+                }
+
+                if (c >= tooExpensive) {
+                    settle(xLo, xHi, yLo, yHi, fMin, fMax, bMin, bMax);
+                    return;
+                }
+            }
+        }
+
+        /** Set (xMid, yMid) to the point furthest along of the forward and
+         *  backward searches. */
+        private void settle(int xLo, int xHi, int yLo, int yHi,
+                            int fMin, int fMax, int bMin, int bMax) {
+            long fBest = -1;
+            int fx = xLo;
+            for (int d = fMax; d >= fMin; d -= 2) {
+                int x = Math.min(fd[d + offset], xHi);
+                int y = x - d;
+                if (y > yHi) {
+                    x = yHi + d;
+                    y = yHi;
+                }
+                if (fBest < (long) x + y) {
+                    fBest = (long) x + y;
+                    fx = x;
+                }
+            }
+            long bBest = Long.MAX_VALUE;
+            int bx = xHi;
+            for (int d = bMax; d >= bMin; d -= 2) {
+                int x = Math.max(xLo, bd[d + offset]);
+                int y = x - d;
+                if (y < yLo) {
+                    x = yLo + d;
+                    y = yLo;
+                }
+                if ((long) x + y < bBest) {
+                    bBest = (long) x + y;
+                    bx = x;
+                }
+            }
+            if ((long) xHi + yHi - bBest < fBest - (xLo + yLo)) {
+                xMid = fx;
+                yMid = (int) (fBest - fx);
+            } else {
+                xMid = bx;
+                yMid = (int) (bBest - bx);
+            }
+        }
+    }
+
+    /** The result of a three-way merge. */
+    static class Merged {
+        /** The merged contents. */
+        final byte[] contents;
+
+        /** Number of conflicting regions, marked in contents. */
+        final int conflicts;
+
+        Merged(byte[] contents, int conflicts) {
+            this.contents = contents;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /** Merge the changes from BASE to OURS with those from BASE to THEIRS.
+     *  Changes to different regions are both applied; where the changes touch
+     *  or overlap and differ, both versions are kept between conflict markers. */
+    static Merged merge(byte[] base, byte[] ours, byte[] theirs) {
+        String[] baseLines = lines(base);
+        String[] ourLines = lines(ours);
+        String[] theirLines = lines(theirs);
+        int[][] seqs = intern(baseLines, ourLines, theirLines);
+        List<Edit> mine = diff(seqs[0], seqs[1]);
+        List<Edit> other = diff(seqs[0], seqs[2]);
+
+        StringBuilder out = new StringBuilder();
+        int conflicts = 0;
+        int pos = 0;
+        int i = 0;
+        int j = 0;
+        int mineDelta = 0;
+        int otherDelta = 0;
+        while (i < mine.size() || j < other.size()) {
+            int start = Math.min(i < mine.size() ? mine.get(i).aStart : Integer.MAX_VALUE,
+                    j < other.size() ? other.get(j).aStart : Integer.MAX_VALUE);
+            int end = start;
+            int mineChange = 0;
+            int otherChange = 0;
+            int iStart = i;
+            int jStart = j;
+            // Gather the edits of both sides that touch the region.
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < mine.size() && mine.get(i).aStart <= end) {
+                    Edit e = mine.get(i++);
+                    end = Math.max(end, e.aEnd);
+                    mineChange += (e.bEnd - e.bStart) - (e.aEnd - e.aStart);
+                    grew = true;
+                }
+                while (j < other.size() && other.get(j).aStart <= end) {
+                    Edit e = other.get(j++);
+                    end = Math.max(end, e.aEnd);
+                    otherChange += (e.bEnd - e.bStart) - (e.aEnd - e.aStart);
+                    grew = true;
+                }
+            }
+
+            append(out, baseLines, pos, start);
+            int mineFrom = start + mineDelta;
+            int mineTo = end + mineDelta + mineChange;
+            int otherFrom = start + otherDelta;
+            int otherTo = end + otherDelta + otherChange;
+            if (j == jStart) {
+                append(out, ourLines, mineFrom, mineTo);
+            } else if (i == iStart) {
+                append(out, theirLines, otherFrom, otherTo);
+            } else if (sameLines(ourLines, mineFrom, mineTo, theirLines, otherFrom, otherTo)) {
+                append(out, ourLines, mineFrom, mineTo);
+            } else {
+                out.append(HEAD_MARKER);
+                append(out, ourLines, mineFrom, mineTo);
+                out.append(MIDDLE_MARKER);
+                append(out, theirLines, otherFrom, otherTo);
+                out.append(TAIL_MARKER);
+                conflicts++;
+            }
+            mineDelta += mineChange;
+            otherDelta += otherChange;
+            pos = end;
+        }
+        append(out, baseLines, pos, baseLines.length);
+        return new Merged(out.toString().getBytes(StandardCharsets.ISO_8859_1), conflicts);
+    }
+
+    /** Append LINES[from, to) to OUT. */
+    private static void append(StringBuilder out, String[] lines, int from, int to) {
+        for (int k = from; k < to; k++) {
+            out.append(lines[k]);
+        }
+    }
+
+    /** Returns true if A[aFrom, aTo) and B[bFrom, bTo) are the same lines. */
+    private static boolean sameLines(String[] a, int aFrom, int aTo, String[] b, int bFrom, int bTo) {
+        if (aTo - aFrom != bTo - bFrom) {
+            return false;
+        }
+        for (int k = 0; k < aTo - aFrom; k++) {
+            if (!a[aFrom + k].equals(b[bFrom + k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write the unified diff from OLDCONTENTS to NEWCONTENTS of the file
+     *  NAME to OUT. A null side is a missing file. Nothing is written if the
+     *  contents are equal. */
+    static void writeUnified(OutputStream out, String name, byte[] oldContents,
+                            byte[] newContents) throws IOException {
+        String[] oldLines = lines(oldContents == null ? new byte[0] : oldContents);
+        String[] newLines = lines(newContents == null ? new byte[0] : newContents);
+        int[][] seqs = intern(oldLines, newLines);
+        List<Edit> edits = diff(seqs[0], seqs[1]);
+        if (edits.isEmpty() && (oldContents == null) == (newContents == null)) {
+            return;
+        }
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        writeLine(text, "diff --gitlet a/" + name + " b/" + name + "\n");
+        writeLine(text, oldContents == null ? "--- /dev/null\n" : "--- a/" + name + "\n");
+        writeLine(text, newContents == null ? "+++ /dev/null\n" : "+++ b/" + name + "\n");
+        for (int k = 0; k < edits.size(); ) {
+            // A hunk holds the edits whose contexts overlap.
+            int last = k;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last++;
+            }
+            Edit first = edits.get(k);
+            Edit end = edits.get(last);
+            int aFrom = Math.max(0, first.aStart - CONTEXT);
+            int bFrom = first.bStart - (first.aStart - aFrom);
+            int aTo = Math.min(oldLines.length, end.aEnd + CONTEXT);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            writeLine(text, "@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n");
+            int a = aFrom;
+            for (int e = k; e <= last; e++) {
+                Edit edit = edits.get(e);
+                for (; a < edit.aStart; a++) {
+                    writeDiffLine(text, ' ', oldLines[a]);
+                }
+                for (int x = edit.aStart; x < edit.aEnd; x++) {
+                    writeDiffLine(text, '-', oldLines[x]);
+                }
+                for (int y = edit.bStart; y < edit.bEnd; y++) {
+                    writeDiffLine(text, '+', newLines[y]);
+                }
+                a = edit.aEnd;
+            }
+            for (; a < aTo; a++) {
+                writeDiffLine(text, ' ', oldLines[a]);
+            }
+            k = last + 1;
+        }
+        text.writeTo(out);
+    }
+
+    /** Returns the range of lines [FROM, TO) as printed in a hunk header. */
+    private static String range(int from, int to) {
+        int count = to - from;
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    private static void writeDiffLine(ByteArrayOutputStream out, char tag, String line) {
+        out.write(tag);
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+        if (!line.endsWith("\n")) {
+            writeLine(out, "\n\\ No newline at end of file\n");
+        }
+    }
+
+    private static void writeLine(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+}
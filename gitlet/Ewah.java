@@ -0,0 +1,133 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Represents a bitmap compressed with EWAH (Enhanced Word-Aligned Hybrid).
+ *  The bitmap is a sequence of 64-bit words. Runs of words whose bits are all
+ *  0 or all 1 ("clean" words) are replaced by a count, so a bitmap costs space
+ *  in proportion to its literal ("dirty") words. The compressed form is a
+ *  sequence of marker words, each followed by literal words: bit 0 of a marker
+ *  is the bit of its run of clean words, bits 1 to 32 the length of the run,
+ *  and bits 33 to 63 the number of literal words that follow the marker.
+ *
+ *  Bitmaps are never modified. They are read by OR-ing them into an
+ *  uncompressed array of words, skipping runs of zeros, or by testing a bit.
+ *
+ *  @author fqcd
+ */
+class Ewah {
+    /** Longest run of clean words one marker holds. */
+    private static final long MAX_RUN = 0xffffffffL;
+
+    /** Largest number of literal words one marker holds. */
+    private static final int MAX_LITERALS = 0x7fffffff;
+
+    /** The compressed words. */
+    private final long[] words;
+
+    private Ewah(long[] words) {
+        this.words = words;
+    }
+
+    /** Returns the compressed form of the first N words of BITS. */
+    static Ewah compress(long[] bits, int n) {
+        while (n > 0 && bits[n - 1] == 0) {
+            n--;
+        }
+        long[] res = new long[8];
+        int size = 0;
+        int i = 0;
+        while (i < n) {
+            boolean runBit = bits[i] == -1L;
+            long run = 0;
+            if (bits[i] == 0 || runBit) {
+                long clean = runBit ? -1L : 0;
+                while (i < n && bits[i] == clean && run < MAX_RUN) {
+                    run++;
+                    i++;
+                }
+            }
+            int start = i;
+            while (i < n && bits[i] != 0 && bits[i] != -1L && i - start < MAX_LITERALS) {
+                i++;
+            }
+            int literals = i - start;
+            if (size + 1 + literals > res.length) {
+                res = Arrays.copyOf(res, Math.max(2 * res.length, size + 1 + literals));
+            }
+            res[size++] = (runBit ? 1L : 0) | (run << 1) | ((long) literals << 33);
+            System.arraycopy(bits, start, res, size, literals);
+            size += literals;
+        }
+        return new Ewah(Arrays.copyOf(res, size));
+    }
+
+    /** OR this bitmap into the uncompressed words TARGET, ignoring words past
+     *  its end. */
+    void orInto(long[] target) {
+        int pos = 0;
+        int i = 0;
+        while (i < words.length && pos < target.length) {
+            long marker = words[i++];
+            long run = (marker >>> 1) & MAX_RUN;
+            int literals = (int) (marker >>> 33);
+            if ((marker & 1) != 0) {
+                int end = (int) Math.min(target.length, pos + run);
+                Arrays.fill(target, pos, end, -1L);
+            }
+            pos += (int) run;
+            for (int k = 0; k < literals && pos < target.length; k++) {
+                target[pos++] |= words[i + k];
+            }
+            i += literals;
+        }
+    }
+
+    /** Returns true if bit BIT is set. */
+    boolean get(int bit) {
+        int word = bit >>> 6;
+        long pos = 0;
+        int i = 0;
+        while (i < words.length) {
+            long marker = words[i++];
+            long run = (marker >>> 1) & MAX_RUN;
+            int literals = (int) (marker >>> 33);
+            if (word < pos + run) {
+                return (marker & 1) != 0;
+            }
+            pos += run;
+            if (word < pos + literals) {
+                return (words[i + (int) (word - pos)] & (1L << bit)) != 0;
+            }
+            pos += literals;
+            i += literals;
+        }
+        return false;
+    }
+
+    /** Returns the number of compressed words. */
+    int size() {
+        return words.length;
+    }
+
+    /** Write this bitmap to OUT: the number of compressed words and the words. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(words.length);
+        for (long w : words) {
+            out.writeLong(w);
+        }
+    }
+
+    /** Returns the bitmap written by write at offset OFFSET of BUF. */
+    static Ewah read(ByteBuffer buf, int offset) {
+        int n = buf.getInt(offset);
+        long[] words = new long[n];
+        for (int i = 0; i < n; i++) {
+            words[i] = buf.getLong(offset + 4 + 8 * i);
+        }
+        return new Ewah(words);
+    }
+}
@@ -0,0 +1,219 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Represents a garbage collection of the objects of the repository.
+ *  Objects are marked from the roots, the head commit of every branch, the
+ *  current commit and the blobs of the stage, through parent commits, trees,
+ *  blobs, the bases of delta blobs and the chunks of chunked blobs. The ids
+ *  of each kind of object are listed once in sorted order, so an object is
+ *  marked by setting the bit of its position in a BitSet, found by binary
+ *  search. Objects left unmarked are deleted, loose or packed, unless they
+ *  were written within the grace period, so that objects of a command that
+ *  has not yet recorded them are never lost. Such recent objects are marked
+ *  as roots too, so everything they refer to is kept with them. The derived
+ *  files are rebuilt if commits were deleted.
+ *
+ *  gc takes the exclusive lock of the repository like any writing command,
+ *  so it never runs together with another command.
+ *
+ *  @author fqcd
+ */
+class GarbageCollector {
+    /** The sorted ids of each kind of object, indexed like Pack.KINDS. */
+    private final String[][] ids = new String[Pack.KINDS.length][];
+
+    /** The marked objects of each kind, by position in ids. */
+    private final BitSet[] marked = new BitSet[Pack.KINDS.length];
+
+    /** Trees marked but not yet visited. */
+    private final Deque<String> trees = new ArrayDeque<>();
+
+    private static final int COMMITS = Pack.kindOf(Repository.COMMIT_DIR);
+    private static final int BLOBS = Pack.kindOf(Repository.BLOB_DIR);
+    private static final int TREES = Pack.kindOf(Repository.TREE_DIR);
+    private static final int CHUNKS = Pack.kindOf(Repository.CHUNK_DIR);
+
+    private GarbageCollector() {
+        for (int k = 0; k < Pack.KINDS.length; k++) {
+            ids[k] = objectIds(join(Repository.OBJECT_DIR, Pack.KINDS[k])).toArray(new String[0]);
+            marked[k] = new BitSet(ids[k].length);
+        }
+    }
+
+    /** Delete the objects not reachable from the branches, the current commit
+     *  or the stage, except those written less than GRACEMILLIS milliseconds
+     *  ago, and print how many were deleted. */
+    static void run(long graceMillis) {
+        GarbageCollector gc = new GarbageCollector();
+        gc.markRoots();
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        gc.markRecent(cutoff);
+
+        int removed = 0;
+        boolean commitsRemoved = false;
+        for (int k = 0; k < Pack.KINDS.length; k++) {
+            File dir = join(Repository.OBJECT_DIR, Pack.KINDS[k]);
+            for (String id : Pack.looseIds(dir)) {
+                File f = getObjectFile(id, dir);
+                if (!gc.isMarked(k, id) && f.lastModified() < cutoff && f.delete()) {
+                    removed++;
+                    commitsRemoved |= k == COMMITS;
+                    String[] rest = f.getParentFile().list();
+                    if (rest != null && rest.length == 0) {
+                        f.getParentFile().delete();
+                    }
+                }
+            }
+        }
+        int pruned = Pack.prune(gc::isMarked, cutoff);
+        if (pruned > 0) {
+            removed += pruned;
+            commitsRemoved = true;
+        }
+        removeTempFiles(cutoff);
+
+        if (commitsRemoved) {
+            CommitCache.clear();
+            Repository.reindex();
+        }
+        System.out.printf("Removed %d unreachable objects.%n", removed);
+    }
+
+    /** Mark every object reachable from the branches, the current commit and
+     *  the stage. */
+    private void markRoots() {
+        Deque<String> commits = new ArrayDeque<>();
+        Branches branches = Branches.readBranches();
+        for (String name : branches.getBranchNames()) {
+            commits.push(branches.getCommit(name));
+        }
+        commits.push(branches.getCurCommit());
+        for (String blobId : Stage.readStage().index.values()) {
+            if (!blobId.equals(Stage.REMOVAL)) {
+                markBlob(blobId);
+            }
+        }
+
+        markCommits(commits);
+    }
+
+    /** Mark the objects written at or after CUTOFF, loose or packed, and
+     *  everything they refer to. They are never deleted, so neither may the
+     *  bases and chunks of their blobs, their trees or their parents be. */
+    private void markRecent(long cutoff) {
+        Deque<String> commits = new ArrayDeque<>();
+        for (int k = 0; k < Pack.KINDS.length; k++) {
+            File dir = join(Repository.OBJECT_DIR, Pack.KINDS[k]);
+            List<String> recent = new ArrayList<>();
+            for (String id : Pack.looseIds(dir)) {
+                if (getObjectFile(id, dir).lastModified() >= cutoff) {
+                    recent.add(id);
+                }
+            }
+            Pack.idsSince(k, cutoff, recent);
+            for (String id : recent) {
+                if (k == COMMITS) {
+                    commits.push(id);
+                } else if (k == TREES) {
+                    markTree(id);
+                } else if (k == BLOBS) {
+                    markBlob(id);
+                } else {
+                    mark(k, id);
+                }
+            }
+        }
+        markCommits(commits);
+    }
+
+    /** Mark the commits COMMITS, their ancestors and their files. */
+    private void markCommits(Deque<String> commits) {
+        while (!commits.isEmpty()) {
+            String id = commits.pop();
+            if (!mark(COMMITS, id)) {
+                continue;
+            }
+            Commit commit = readCommit(id);
+            if (commit.parent1 != null) {
+                commits.push(commit.parent1);
+            }
+            if (commit.parent2 != null) {
+                commits.push(commit.parent2);
+            }
+            if (commit.getTree() != null) {
+                markTree(commit.getTree());
+            } else {
+                for (String blobId : commit.getBlobs().values()) {
+                    markBlob(blobId);
+                }
+            }
+        }
+    }
+
+    /** Mark the tree ID and everything under it. */
+    private void markTree(String id) {
+        if (!mark(TREES, id)) {
+            return;
+        }
+        trees.push(id);
+        while (!trees.isEmpty()) {
+            for (Tree.Entry e : Tree.entries(trees.pop())) {
+                if (e.type == Tree.BLOB) {
+                    markBlob(e.id);
+                } else if (mark(TREES, e.id)) {
+                    trees.push(e.id);
+                }
+            }
+        }
+    }
+
+    /** Mark the blob ID, the bases it is stored against and its chunks. */
+    private void markBlob(String id) {
+        while (id != null && mark(BLOBS, id)) {
+            for (String chunk : Chunker.chunksOf(id)) {
+                mark(CHUNKS, chunk);
+            }
+            id = Delta.baseOf(id);
+        }
+    }
+
+    /** Mark the object of KIND with the given ID. Returns false if it was
+     *  marked already or does not exist. */
+    private boolean mark(int kind, String id) {
+        int pos = Arrays.binarySearch(ids[kind], id);
+        if (pos < 0 || marked[kind].get(pos)) {
+            return false;
+        }
+        marked[kind].set(pos);
+        return true;
+    }
+
+    private boolean isMarked(int kind, String id) {
+        int pos = Arrays.binarySearch(ids[kind], id);
+        return pos >= 0 && marked[kind].get(pos);
+    }
+
+    /** Delete the temporary files of writes that never finished, left in the
+     *  objects folder before CUTOFF. */
+    private static void removeTempFiles(long cutoff) {
+        List<String> names = plainFilenamesIn(Repository.OBJECT_DIR);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File f = join(Repository.OBJECT_DIR, name);
+            if (name.endsWith(".tmp") && f.lastModified() < cutoff) {
+                f.delete();
+            }
+        }
+    }
+}
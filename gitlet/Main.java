@@ -1,18 +1,77 @@
 package gitlet;
 
+import java.util.Arrays;
+import java.util.Set;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Ao Yan
  */
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  <COMMAND> <OPERAND1> <OPERAND2> ...
+     *  or: java gitlet.Main batch [SCRIPT], which runs the commands of SCRIPT
+     *  (or of the standard input), one per line, in this JVM.
+     *  Either may be preceded by --trace, which prints the I/O and the phase
+     *  timings of each command to standard error (see Trace).
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--trace")) {
+            Trace.enable();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        try {
+            if (args.length > 0 && args[0].equals("batch")) {
+                Batch.run(args);
+                return;
+            }
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Commands that only read the repository, and so run under a shared lock.
+     *  One that must write a derived file first, status saving its stat cache
+     *  for instance, runs again under the exclusive lock. */
+    private static final Set<String> READ_ONLY = Set.of(
+            "log", "global-log", "find", "status", "diff", "is-ancestor", "rev-list",
+            "merge-base", "pS", "pB", "pC");
+
+    /** Run the single command ARGS, holding the lock of the repository. During
+     *  a batch the exclusive lock taken by the first command is kept until the
+     *  batch ends. A command under the shared lock that must write is run
+     *  again from the start under the exclusive lock. */
+    static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
+        boolean shared = !Batch.isActive() && (READ_ONLY.contains(args[0])
+                || (args[0].equals("config") && args.length == 2));
+        boolean locked = RepoLock.acquire(shared);
+        Trace.begin(args[0]);
+        try {
+            try {
+                dispatch(args);
+            } catch (RepoLock.ExclusiveNeeded excp) {
+                RepoLock.release();
+                locked = RepoLock.acquire(false);
+                // Another command may have written in between.
+                CommitGraph.forget();
+                Pack.reload();
+                dispatch(args);
+            }
+        } finally {
+            Trace.end();
+            if (locked && !Batch.isActive()) {
+                RepoLock.release();
+            }
+        }
+    }
+
+    /** Run the single command ARGS. */
+    private static void dispatch(String[] args) {
         String firstArg = args[0];
         String fileName;
         String commitId;
@@ -84,7 +143,11 @@ public class Main {
                 }
                 break;
             case "find":
-                if (validCheck(args)) {
+                if (args.length == 3 && args[1].equals("--regex")) {
+                    if (validCheck()) {
+                        Repository.findLogRegex(args[2]);
+                    }
+                } else if (validCheck(args)) {
                     message = args[1];
                     Repository.findLog(message);
                 }
@@ -118,6 +181,83 @@ public class Main {
                     Repository.mergeBranch(branchName);
                 }
                 break;
+            case "diff":
+                if (!validCheck()) {
+                    return;
+                }
+                if (args.length > 3) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Repository.diff(args.length > 1 ? args[1] : null, args.length > 2 ? args[2] : null);
+                break;
+            case "is-ancestor":
+                if (!validCheck()) {
+                    return;
+                }
+                if (args.length != 3) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Repository.isAncestor(args[1], args[2]);
+                break;
+            case "rev-list":
+                if (!validCheck()) {
+                    return;
+                }
+                if (args.length < 2) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Repository.revList(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "merge-base":
+                if (!validCheck()) {
+                    return;
+                }
+                if (args.length == 4 && args[1].equals("--all")) {
+                    Repository.mergeBase(args[2], args[3], true);
+                } else if (args.length == 3) {
+                    Repository.mergeBase(args[1], args[2], false);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "config":
+                if (!validCheck()) {
+                    return;
+                }
+                if (args.length < 2 || args.length > 3) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Repository.config(args[1], args.length == 3 ? args[2] : null);
+                break;
+            case "migrate":
+                if (validCheck()) {
+                    Repository.migrate();
+                }
+                break;
+            case "repack":
+                if (validCheck()) {
+                    Repository.repack();
+                }
+                break;
+            case "reindex":
+                if (validCheck()) {
+                    Repository.reindex();
+                }
+                break;
+            case "gc":
+                if (!validCheck()) {
+                    return;
+                }
+                if (args.length > 2) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Repository.gc(args.length == 2 ? args[1] : null);
+                break;
             case "pS":
                 Repository.printStage();
                 break;
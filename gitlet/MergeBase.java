@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Finds the best common ancestors (merge bases) of two commits.
+ *  Both commits are walked at once over the commit-graph, in decreasing
+ *  order of generation number, so every commit is reached from all its
+ *  descendants on the walk before it is visited. Commits reached from the
+ *  first commit are painted FROM_A and those reached from the second FROM_B.
+ *  A commit with both colors is a common ancestor; it is a result and
+ *  everything below it is STALE, since its ancestors cannot be better. The
+ *  walk stops as soon as only stale commits are left, so it costs in
+ *  proportion to the history since the commits diverged, not to the whole
+ *  history.
+ *
+ *  A result may still be an ancestor of another, when the walk reached it
+ *  through a path that bypassed the other, so those are removed with the
+ *  reachability bitmaps. What remains are all the best common ancestors:
+ *  there are several after a criss-cross merge.
+ *
+ *  @author fqcd
+ */
+class MergeBase {
+    private static final int FROM_A = 1;
+    private static final int FROM_B = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    /** The commit-graph walked. */
+    private final CommitGraph graph;
+
+    /** The colors of the commits reached, by graph position. */
+    private final Map<Integer, Integer> flags = new HashMap<>();
+
+    /** The commits to visit, highest generation first, and the number of
+     *  them that are not stale. */
+    private final PriorityQueue<Integer> queue;
+    private int fresh = 0;
+
+    private MergeBase(CommitGraph graph) {
+        this.graph = graph;
+        queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(graph.generation(y), graph.generation(x));
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        });
+    }
+
+    /** Returns the graph positions of all the best common ancestors of the
+     *  commits at A and B in GRAPH, highest position first. */
+    static List<Integer> bases(CommitGraph graph, int a, int b) {
+        List<Integer> res = new ArrayList<>();
+        if (a == b) {
+            res.add(a);
+            return res;
+        }
+        res = new MergeBase(graph).paint(a, b);
+        if (res.size() < 2) {
+            return res;
+        }
+        return removeRedundant(CommitBitmaps.read(graph), res);
+    }
+
+    /** Returns the full ids of all the best common ancestors of the commits
+     *  with full ids AID and BID, newest first, or null if either does not
+     *  exist. */
+    static List<String> bases(String aId, String bId) {
+        int a = CommitGraph.find(aId);
+        int b = CommitGraph.find(bId);
+        if (a == CommitGraph.NONE || b == CommitGraph.NONE) {
+            return null;
+        }
+        CommitGraph graph = CommitGraph.read();
+        List<String> res = new ArrayList<>();
+        for (int pos : bases(graph, a, b)) {
+            res.add(graph.idAt(pos));
+        }
+        return res;
+    }
+
+    /** Walk down from A and B, painting their ancestors, and return the
+     *  common ancestors found that are not below another. */
+    private List<Integer> paint(int a, int b) {
+        List<Integer> res = new ArrayList<>();
+        reach(a, FROM_A);
+        reach(b, FROM_B);
+        while (fresh > 0) {
+            int pos = queue.poll();
+            int f = flags.get(pos);
+            if ((f & STALE) == 0) {
+                fresh--;
+            }
+            int colors = f & (FROM_A | FROM_B | STALE);
+            if (colors == (FROM_A | FROM_B)) {
+                if ((f & RESULT) == 0) {
+                    flags.put(pos, f | RESULT);
+                    res.add(pos);
+                }
+                colors |= STALE;
+            }
+            int p1 = graph.parent1(pos);
+            int p2 = graph.parent2(pos);
+            if (p1 != CommitGraph.NONE) {
+                reach(p1, colors);
+            }
+            if (p2 != CommitGraph.NONE) {
+                reach(p2, colors);
+            }
+        }
+        return res;
+    }
+
+    /** Add COLORS to the commit at POS, queueing it if they are new to it.
+     *  A commit is never reached after it is visited, since only its
+     *  descendants reach it and they all have higher generation numbers, so
+     *  a commit already reached is still queued. */
+    private void reach(int pos, int colors) {
+        Integer old = flags.get(pos);
+        int f = old == null ? 0 : old;
+        if ((f & colors) == colors) {
+            return;
+        }
+        boolean queued = old != null;
+        if (queued && (f & STALE) == 0 && (colors & STALE) != 0) {
+            fresh--;
+        }
+        f |= colors;
+        flags.put(pos, f);
+        if (!queued) {
+            queue.add(pos);
+            if ((f & STALE) == 0) {
+                fresh++;
+            }
+        }
+    }
+
+    /** Returns RESULTS without those that are ancestors of another, sorted
+     *  by decreasing position. */
+    private static List<Integer> removeRedundant(CommitBitmaps bitmaps, List<Integer> results) {
+        results.sort((x, y) -> Integer.compare(y, x));
+        List<Integer> res = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            boolean redundant = false;
+            for (int j = 0; j < results.size() && !redundant; j++) {
+                redundant = i != j && bitmaps.isAncestor(results.get(i), results.get(j));
+            }
+            if (!redundant) {
+                res.add(results.get(i));
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static gitlet.Utils.*;
+
+/** Represents the changes a merge makes to the working files and the stage.
+ *  The plan is made in a single pass, a merge-join of the file tables of the
+ *  split point, the current commit and the given commit, which are all sorted
+ *  by file name, so each name is looked up once. A file needs a step only
+ *  when the given commit changed it and the current commit did not change it
+ *  the same way:
+ *
+ *  TAKE      only the given commit changed it: write its blob.
+ *  REMOVE    only the given commit removed it: stage the removal.
+ *  MERGE     both changed it: merge the changes line by line, or, if one
+ *            side is binary or larger than merge.maxsize, write both
+ *            sides between conflict markers.
+ *  CONFLICT  both changed it and one removed or added it: write both sides
+ *            between conflict markers.
+ *
+ *  The steps are then carried out in parallel, each writing its own working
+ *  file and blob, and staged in the order of the plan. The ids of the files
+ *  written are known from the blobs taken or saved, so they are not hashed
+ *  again to stage them.
+ *
+ *  @author fqcd
+ */
+class MergePlan {
+    static final int TAKE = 0;
+    static final int REMOVE = 1;
+    static final int MERGE = 2;
+    static final int CONFLICT = 3;
+
+    /** A change to one file. */
+    private static class Step {
+        final int kind;
+        final String name;
+        final String baseId;
+        final String curId;
+        final String otherId;
+
+        /** The blob of the file written, once it is. */
+        String id;
+
+        /** Whether the file written has conflicts. */
+        boolean conflict;
+
+        Step(int kind, String name, String baseId, String curId, String otherId) {
+            this.kind = kind;
+            this.name = name;
+            this.baseId = baseId;
+            this.curId = curId;
+            this.otherId = otherId;
+        }
+    }
+
+    /** The steps, in order of file name. */
+    private final List<Step> steps = new ArrayList<>();
+
+    /** Returns the plan merging the changes from the files BASE of the split
+     *  point to the files OTHER of the given commit into the files CUR of the
+     *  current commit. Each maps file names to blob ids. */
+    static MergePlan plan(SortedMap<String, String> base, SortedMap<String, String> cur,
+                          SortedMap<String, String> other) {
+        MergePlan plan = new MergePlan();
+        Cursor b = new Cursor(base);
+        Cursor c = new Cursor(cur);
+        Cursor o = new Cursor(other);
+        while (b.name != null || c.name != null || o.name != null) {
+            String name = min(min(b.name, c.name), o.name);
+            String baseId = b.take(name);
+            String curId = c.take(name);
+            String otherId = o.take(name);
+            if (Objects.equals(curId, otherId) || Objects.equals(otherId, baseId)) {
+                continue;
+            }
+            int kind;
+            if (Objects.equals(curId, baseId)) {
+                kind = otherId == null ? REMOVE : TAKE;
+            } else if (baseId != null && curId != null && otherId != null) {
+                kind = MERGE;
+            } else {
+                kind = CONFLICT;
+            }
+            plan.steps.add(new Step(kind, name, baseId, curId, otherId));
+        }
+        return plan;
+    }
+
+    /** Walks the entries of a file table in order of name. */
+    private static class Cursor {
+        private final Iterator<Map.Entry<String, String>> entries;
+
+        /** The name and blob of the current entry; null after the last. */
+        String name;
+        private String id;
+
+        Cursor(SortedMap<String, String> files) {
+            entries = files.entrySet().iterator();
+            next();
+        }
+
+        /** Returns the blob of the file NAME and moves past it if it is the
+         *  current entry, or returns null. */
+        String take(String fileName) {
+            if (!fileName.equals(name)) {
+                return null;
+            }
+            String res = id;
+            next();
+            return res;
+        }
+
+        private void next() {
+            if (entries.hasNext()) {
+                Map.Entry<String, String> e = entries.next();
+                name = e.getKey();
+                id = e.getValue();
+            } else {
+                name = null;
+                id = null;
+            }
+        }
+    }
+
+    /** Returns the lesser of the file names X and Y, either of which may be null. */
+    private static String min(String x, String y) {
+        if (x == null) {
+            return y;
+        } else if (y == null) {
+            return x;
+        }
+        return x.compareTo(y) <= 0 ? x : y;
+    }
+
+    /** Returns the number of files the plan changes. */
+    int size() {
+        return steps.size();
+    }
+
+    /** Carry out the plan, writing the working files on PARALLELISM threads,
+     *  and stage the changes in STAGE. Returns true if some file conflicts. */
+    boolean execute(Stage stage, int parallelism) {
+        int maxSize = Config.mergeMaxSize();
+        List<Step> writes = new ArrayList<>();
+        for (Step step : steps) {
+            if (step.kind != REMOVE) {
+                writes.add(step);
+            }
+        }
+        if (parallelism <= 1 || writes.size() <= 1) {
+            for (Step step : writes) {
+                write(step, maxSize);
+            }
+        } else {
+            // Load the lazily read state on this thread before sharing it.
+            Config.format();
+            Pack.packs();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, writes.size()).parallel()
+                        .forEach(i -> write(writes.get(i), maxSize))).get();
+            } catch (InterruptedException excp) {
+                throw error("Failed to write merged files: %s", excp.getMessage());
+            } catch (ExecutionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw error("Failed to write merged files: %s", excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        boolean conflict = false;
+        for (Step step : steps) {
+            File file = join(Repository.CWD, step.name);
+            if (step.kind == REMOVE) {
+                stage.index.put(step.name, Stage.REMOVAL);
+                if (file.exists() && stage.getId(file).equals(step.baseId)) {
+                    restrictedDelete(file);
+                }
+            } else {
+                stage.trackBlob(file, step.id);
+                conflict |= step.conflict;
+            }
+        }
+        return conflict;
+    }
+
+    /** Write the working file of STEP and save its blob, merging files of
+     *  at most MAXSIZE bytes line by line. */
+    private static void write(Step step, int maxSize) {
+        File file = join(Repository.CWD, step.name);
+        switch (step.kind) {
+            case TAKE:
+                writeBlobTo(step.otherId, file);
+                step.id = step.otherId;
+                break;
+            case MERGE:
+                byte[] base = loadText(step.baseId, maxSize);
+                byte[] cur = base == null ? null : loadText(step.curId, maxSize);
+                byte[] other = cur == null ? null : loadText(step.otherId, maxSize);
+                if (other == null) {
+                    writeConflict(step.curId, step.otherId, file);
+                    step.id = saveBlob(file, step.name);
+                    step.conflict = true;
+                    break;
+                }
+                Diff.Merged merged = Diff.merge(base, cur, other);
+                writeContents(file, (Object) merged.contents);
+                step.id = saveBlob(merged.contents, step.name, step.curId);
+                step.conflict = merged.conflicts > 0;
+                break;
+            case CONFLICT:
+                writeConflict(step.curId, step.otherId, file);
+                step.id = saveBlob(file, step.name);
+                step.conflict = true;
+                break;
+            default:
+                throw new IllegalArgumentException("cannot write step " + step.kind);
+        }
+    }
+
+    /** Returns the contents of the blob BLOBID, or null if it is longer than
+     *  MAXSIZE bytes or has a NUL byte, which marks it as binary. Reads no
+     *  more than MAXSIZE + 1 bytes of it either way. */
+    private static byte[] loadText(String blobId, int maxSize) {
+        byte[] res;
+        try (InputStream in = openObject(blobId, Repository.BLOB_DIR)) {
+            if (in == null) {
+                throw error("Missing blob %s", blobId);
+            }
+            res = in.readNBytes(maxSize == Integer.MAX_VALUE ? maxSize : maxSize + 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (res.length > maxSize) {
+            return null;
+        }
+        for (byte b : res) {
+            if (b == 0) {
+                return null;
+            }
+        }
+        return res;
+    }
+
+    /** Write the blobs CURID and OTHERID, either of which may be null, to FILE
+     *  between conflict markers. */
+    private static void writeConflict(String curId, String otherId, File file) {
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), BUFFER_SIZE)) {
+            out.write(Diff.HEAD_MARKER.getBytes(StandardCharsets.UTF_8));
+            copyBlob(curId, out);
+            out.write(Diff.MIDDLE_MARKER.getBytes(StandardCharsets.UTF_8));
+            copyBlob(otherId, out);
+            out.write(Diff.TAIL_MARKER.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the contents of the blob BLOBID, if not null, to OUT. */
+    private static void copyBlob(String blobId, OutputStream out) throws IOException {
+        if (blobId == null) {
+            return;
+        }
+        try (InputStream in = openObject(blobId, Repository.BLOB_DIR)) {
+            copy(in, out, null);
+        }
+    }
+}
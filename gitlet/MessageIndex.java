@@ -0,0 +1,546 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** Represents the trigram index of commit messages used by find.
+ *  The index keeps every commit message together with an inverted index from
+ *  each trigram (three consecutive chars) of the messages to the commits whose
+ *  message contains it. A query is narrowed to the commits holding all
+ *  trigrams of the query, and only those messages are checked, so find never
+ *  reads commit objects.
+ *
+ *  The index is a base file, which is memory-mapped, and an append-only tail
+ *  of the commits written since, which Commit.writeCommit appends to. Once the
+ *  tail grows past TAIL_LIMIT bytes it is merged into a new base.
+ *
+ *  @author fqcd
+ */
+class MessageIndex {
+    /** The base file. */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "message-index");
+
+    /** The tail file. */
+    static final File TAIL_FILE = join(Repository.GITLET_DIR, "message-index.tail");
+
+    /** Largest size of the tail file, in bytes, before it is merged into the base. */
+    static final int TAIL_LIMIT = 1 << 16;
+
+    /** Magic number of the base file ("GMIX"). */
+    private static final int MAGIC = 0x474d4958;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Size of the header: magic, version, commit and trigram counts, and the
+     *  offsets of the messages, postings and trigram table. */
+    private static final int HEADER_SIZE = 16 + 3 * 8;
+
+    /** Size of one commit record: id and offset of its message. */
+    private static final int ENTRY_SIZE = ID_BYTES + 8;
+
+    /** Size of one trigram record: trigram, offset and length of its postings. */
+    private static final int TRIGRAM_SIZE = 8 + 8 + 4;
+
+    /** A commit id with its message. */
+    private static class Entry {
+        final String id;
+        final String message;
+
+        Entry(String id, String message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+
+    /** The mapped base file. */
+    private final MappedByteBuffer buf;
+
+    /** Number of commits in the base. */
+    private final int count;
+
+    /** Number of trigrams in the base. */
+    private final int trigrams;
+
+    /** Offsets of the messages, postings and trigram table in the base. */
+    private final long messagesAt;
+    private final long postingsAt;
+    private final long tableAt;
+
+    private MessageIndex(MappedByteBuffer buf) {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw error("Bad message-index file");
+        }
+        count = buf.getInt(8);
+        trigrams = buf.getInt(12);
+        messagesAt = buf.getLong(16);
+        postingsAt = buf.getLong(24);
+        tableAt = buf.getLong(32);
+    }
+
+    /** Returns the ids of the commits whose message contains QUERY, in sorted order. */
+    static List<String> find(String query) {
+        return search(trigramsOf(query), m -> m.contains(query));
+    }
+
+    /** Returns the ids of the commits whose message contains a match of
+     *  PATTERN, in sorted order. Only the literal runs PATTERN requires are
+     *  used to narrow the search. */
+    static List<String> findRegex(Pattern pattern) {
+        Set<Long> required = new HashSet<>();
+        for (String literal : requiredLiterals(pattern.pattern())) {
+            required.addAll(trigramsOf(literal));
+        }
+        return search(required, m -> pattern.matcher(m).find());
+    }
+
+    /** Add the message of commit C to the index, unless the commit-graph
+     *  lists C already: the index then has it too, and another entry would
+     *  leave it out of step with the graph and rebuilt by every search. */
+    static void append(Commit c) {
+        if (!INDEX_FILE.exists()) {
+            rebuild();
+            return;
+        }
+        if (CommitGraph.contains(c.id)) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(TAIL_FILE, true)))) {
+            writeEntry(out, new Entry(c.id, c.getMessage()));
+        } catch (IOException excp) {
+            throw error("Failed to write message-index: %s", excp.getMessage());
+        }
+        if (TAIL_FILE.length() > TAIL_LIMIT) {
+            write(read(), readTail());
+        }
+    }
+
+    /** Build the index again from all commit objects. */
+    static void rebuild() {
+        RepoLock.requireExclusive();
+        List<Entry> all = new ArrayList<>();
+        for (String id : objectIds(Repository.COMMIT_DIR)) {
+            all.add(new Entry(id, readCommit(id).getMessage()));
+        }
+        write(null, all);
+    }
+
+    /** Returns the ids of the commits holding all of REQUIRED whose message
+     *  satisfies MATCHES, in sorted order. The index is rebuilt first if it
+     *  does not list every commit of the commit-graph. */
+    private static List<String> search(Set<Long> required, Predicate<String> matches) {
+        MessageIndex base = INDEX_FILE.exists() ? read() : null;
+        List<Entry> tail = readTail();
+        if (base == null || base.count + tail.size() != CommitGraph.read().size()) {
+            rebuild();
+            base = read();
+            tail = readTail();
+        }
+
+        TreeSet<String> res = new TreeSet<>();
+        for (int ordinal : base.candidates(required)) {
+            if (matches.test(base.messageAt(ordinal))) {
+                res.add(base.idAt(ordinal));
+            }
+        }
+        for (Entry e : tail) {
+            if (matches.test(e.message)) {
+                res.add(e.id);
+            }
+        }
+        return new ArrayList<>(res);
+    }
+
+    /** Returns the ordinals of the commits of the base whose message holds
+     *  all of REQUIRED, in increasing order. */
+    private int[] candidates(Set<Long> required) {
+        int[] res = null;
+        for (long trigram : required) {
+            int rec = findTrigram(trigram);
+            if (rec < 0) {
+                return new int[0];
+            }
+            int[] postings = postingsAt(rec);
+            res = res == null ? postings : intersect(res, postings);
+            if (res.length == 0) {
+                break;
+            }
+        }
+        if (res == null) {
+            res = new int[count];
+            Arrays.setAll(res, i -> i);
+        }
+        return res;
+    }
+
+    /** Returns the elements common to the increasing arrays A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] res = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                res[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    /** Returns the record of TRIGRAM in the trigram table, or -1. */
+    private int findTrigram(long trigram) {
+        int lo = 0;
+        int hi = trigrams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long t = buf.getLong((int) (tableAt + (long) mid * TRIGRAM_SIZE));
+            if (t < trigram) {
+                lo = mid + 1;
+            } else if (t > trigram) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the postings of trigram record REC. */
+    private int[] postingsAt(int rec) {
+        int base = (int) (tableAt + (long) rec * TRIGRAM_SIZE);
+        int at = (int) buf.getLong(base + 8);
+        int[] res = new int[buf.getInt(base + 16)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = buf.getInt(at + 4 * i);
+        }
+        return res;
+    }
+
+    /** Returns the id of the commit with ORDINAL. */
+    private String idAt(int ordinal) {
+        byte[] id = new byte[ID_BYTES];
+        buf.get(HEADER_SIZE + ordinal * ENTRY_SIZE, id);
+        return Pack.bytesToHex(id);
+    }
+
+    /** Returns the message of the commit with ORDINAL. */
+    private String messageAt(int ordinal) {
+        int at = (int) (messagesAt + buf.getLong(HEADER_SIZE + ordinal * ENTRY_SIZE + ID_BYTES));
+        byte[] message = new byte[buf.getInt(at)];
+        buf.get(at + 4, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the trigrams of S, each packed into a long. */
+    static Set<Long> trigramsOf(String s) {
+        Set<Long> res = new HashSet<>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            res.add(((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+        }
+        return res;
+    }
+
+    /** Returns literal strings that every match of the regular expression
+     *  REGEX contains. The analysis is conservative: alternations, inline flags
+     *  and quoting give no literals, and groups, classes, escapes of letters
+     *  and digits (with their arguments) and repeated or optional characters
+     *  end the current literal. */
+    static List<String> requiredLiterals(String regex) {
+        List<String> res = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?") || regex.contains("\\Q")) {
+            return res;
+        }
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char literal = 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(++i);
+                if (!Character.isLetterOrDigit(next)) {
+                    literal = next;
+                } else {
+                    i = skipEscape(regex, i);
+                }
+            } else if (c == '[' || c == '(' || c == '{') {
+                i = skipGroup(regex, i);
+            } else if (".^$+*?)]}".indexOf(c) < 0) {
+                literal = c;
+            }
+            char after = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (literal != 0 && "?*{".indexOf(after) < 0) {
+                run.append(literal);
+                if (after == '+') {
+                    res.add(run.toString());
+                    run.setLength(0);
+                }
+            } else {
+                res.add(run.toString());
+                run.setLength(0);
+            }
+        }
+        res.add(run.toString());
+        res.removeIf(String::isEmpty);
+        return res;
+    }
+
+    /** Returns the index of the last character of the escape whose letter or
+     *  digit is at START of REGEX, past the hex, octal or unicode digits,
+     *  control character, group name or property it takes, if any. */
+    private static int skipEscape(String regex, int start) {
+        char c = regex.charAt(start);
+        switch (c) {
+            case 'x':
+                if (start + 1 < regex.length() && regex.charAt(start + 1) == '{') {
+                    return skipGroup(regex, start + 1);
+                }
+                return skipWhile(regex, start, 2, "0123456789abcdefABCDEF");
+            case 'u':
+                return skipWhile(regex, start, 4, "0123456789abcdefABCDEF");
+            case '0':
+                return skipWhile(regex, start, 3, "01234567");
+            case 'c':
+                return Math.min(start + 1, regex.length() - 1);
+            case 'k':
+                if (start + 1 < regex.length() && regex.charAt(start + 1) == '<') {
+                    int close = regex.indexOf('>', start);
+                    return close < 0 ? regex.length() - 1 : close;
+                }
+                return start;
+            case 'p':
+            case 'P':
+                if (start + 1 < regex.length() && regex.charAt(start + 1) == '{') {
+                    return skipGroup(regex, start + 1);
+                }
+                return Math.min(start + 1, regex.length() - 1);
+            default:
+                if (Character.isDigit(c)) {
+                    return skipWhile(regex, start, regex.length(), "0123456789");
+                }
+                return start;
+        }
+    }
+
+    /** Returns the index of the last of at most MAX characters of REGEX after
+     *  START that are all in CHARS, or START if there are none. */
+    private static int skipWhile(String regex, int start, int max, String chars) {
+        int i = start;
+        while (i - start < max && i + 1 < regex.length()
+                && chars.indexOf(regex.charAt(i + 1)) >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Returns the index of the bracket closing the class, group or
+     *  repetition opened at START of REGEX, or the last index if it is not
+     *  closed. */
+    private static int skipGroup(String regex, int start) {
+        char open = regex.charAt(start);
+        char close = open == '[' ? ']' : open == '(' ? ')' : '}';
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == open && (open == '(' || depth == 0)) {
+                depth++;
+            } else if (c == close && --depth == 0) {
+                return i;
+            }
+        }
+        return regex.length() - 1;
+    }
+
+    /** Copy LENGTH bytes of the base file from offset AT to OUT. */
+    private void copy(long at, long length, DataOutputStream out) throws IOException {
+        byte[] chunk = new byte[BUFFER_SIZE];
+        for (long done = 0; done < length; ) {
+            int n = (int) Math.min(chunk.length, length - done);
+            buf.get((int) (at + done), chunk, 0, n);
+            out.write(chunk, 0, n);
+            done += n;
+        }
+    }
+
+    /** Returns the mapped base file. */
+    private static MessageIndex read() {
+        try (FileChannel ch = FileChannel.open(INDEX_FILE.toPath())) {
+            return new MessageIndex(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException excp) {
+            throw error("Failed to read message-index: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the entries of the tail, oldest first. */
+    private static List<Entry> readTail() {
+        List<Entry> res = new ArrayList<>();
+        if (!TAIL_FILE.exists()) {
+            return res;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(TAIL_FILE.toPath())))) {
+            while (true) {
+                byte[] id = new byte[ID_BYTES];
+                try {
+                    in.readFully(id);
+                } catch (EOFException excp) {
+                    break;
+                }
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                res.add(new Entry(Pack.bytesToHex(id), new String(message, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException excp) {
+            throw error("Failed to read message-index: %s", excp.getMessage());
+        }
+        return res;
+    }
+
+    /** Write one tail entry E to OUT. */
+    private static void writeEntry(DataOutputStream out, Entry e) throws IOException {
+        byte[] message = e.message.getBytes(StandardCharsets.UTF_8);
+        out.write(Pack.hexToBytes(e.id));
+        out.writeInt(message.length);
+        out.write(message);
+    }
+
+    /** Write a new base holding the commits of OLD (if not null) followed by
+     *  ADDED, and empty the tail. The postings of OLD are merged with those of
+     *  ADDED trigram by trigram, so only ADDED is held in memory. */
+    private static void write(MessageIndex old, List<Entry> added) {
+        RepoLock.requireExclusive();
+        int oldCount = old == null ? 0 : old.count;
+        TreeMap<Long, List<Integer>> addedPostings = new TreeMap<>();
+        for (int i = 0; i < added.size(); i++) {
+            for (long trigram : trigramsOf(added.get(i).message)) {
+                addedPostings.computeIfAbsent(trigram, k -> new ArrayList<>()).add(oldCount + i);
+            }
+        }
+
+        File tmp = tempFile(Repository.GITLET_DIR, "message-index");
+        long messagesAt;
+        long postingsAt;
+        long tableAt;
+        int numTrigrams = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.write(new byte[HEADER_SIZE]);
+
+            long oldMessages = old == null ? 0 : old.postingsAt - old.messagesAt;
+            if (old != null) {
+                old.copy(HEADER_SIZE, (long) oldCount * ENTRY_SIZE, out);
+            }
+            long at = oldMessages;
+            for (Entry e : added) {
+                out.write(Pack.hexToBytes(e.id));
+                out.writeLong(at);
+                at += 4 + e.message.getBytes(StandardCharsets.UTF_8).length;
+            }
+
+            messagesAt = HEADER_SIZE + (long) (oldCount + added.size()) * ENTRY_SIZE;
+            if (old != null) {
+                old.copy(old.messagesAt, oldMessages, out);
+            }
+            for (Entry e : added) {
+                byte[] message = e.message.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(message.length);
+                out.write(message);
+            }
+
+            postingsAt = messagesAt + at;
+            ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+            DataOutputStream table = new DataOutputStream(tableBytes);
+            long pos = postingsAt;
+            int rec = 0;
+            Map.Entry<Long, List<Integer>> next = addedPostings.pollFirstEntry();
+            while (rec < (old == null ? 0 : old.trigrams) || next != null) {
+                long oldTrigram = rec < (old == null ? 0 : old.trigrams)
+                        ? old.buf.getLong((int) (old.tableAt + (long) rec * TRIGRAM_SIZE)) : Long.MAX_VALUE;
+                long trigram = next == null ? oldTrigram : Math.min(oldTrigram, next.getKey());
+                int n = 0;
+                if (oldTrigram == trigram) {
+                    for (int ordinal : old.postingsAt(rec)) {
+                        out.writeInt(ordinal);
+                        n++;
+                    }
+                    rec++;
+                }
+                if (next != null && next.getKey() == trigram) {
+                    for (int ordinal : next.getValue()) {
+                        out.writeInt(ordinal);
+                        n++;
+                    }
+                    next = addedPostings.pollFirstEntry();
+                }
+                table.writeLong(trigram);
+                table.writeLong(pos);
+                table.writeInt(n);
+                pos += 4L * n;
+                numTrigrams++;
+            }
+            tableAt = pos;
+            tableBytes.writeTo(out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw error("Failed to write message-index: %s", excp.getMessage());
+        }
+        if (tableAt + (long) numTrigrams * TRIGRAM_SIZE > Integer.MAX_VALUE) {
+            tmp.delete();
+            throw error("The message-index cannot exceed 2 GB.");
+        }
+
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(oldCount + added.size()).putInt(numTrigrams);
+            header.putLong(messagesAt).putLong(postingsAt).putLong(tableAt);
+            header.flip();
+            ch.write(header, 0);
+        } catch (IOException excp) {
+            throw error("Failed to write message-index: %s", excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Failed to write message-index: %s", excp.getMessage());
+        }
+        TAIL_FILE.delete();
+    }
+}
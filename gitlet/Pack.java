@@ -0,0 +1,542 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+
+import static gitlet.Utils.*;
+
+/** Represents a pack of objects.
+ *  A pack is an append-only data file holding the stored bytes of many objects,
+ *  together with an index file that maps object ids and kinds (sorted by id,
+ *  then kind) to their offsets in the data file. Objects of different kinds
+ *  may share an id, so an object is named by both. The index is memory-mapped
+ *  and searched with binary search, and the data file is kept open for as long
+ *  as the pack is loaded, so reading a packed object costs no filesystem lookup
+ *  and opens no file at all.
+ *
+ *  @author fqcd
+ */
+class Pack {
+    /** The kinds of objects, as named by their loose directories. The position
+     *  of a kind in this array is the kind byte recorded in the index. */
+    static final String[] KINDS = {"commits", "blobs", "trees", "chunks"};
+
+    /** Magic number of a data file ("GPAK"). */
+    private static final int DATA_MAGIC = 0x4750414b;
+
+    /** Magic number of an index file ("GIDX"). */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+
+    /** Size of the index header: magic, version and object count. */
+    private static final int HEADER_SIZE = 12;
+
+    /** Number of bytes of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Size of one index record: id, kind, padding, offset and length. */
+    private static final int RECORD_SIZE = 40;
+
+    /** The packs of the repository, loaded on first use. */
+    private static List<Pack> packs = null;
+
+    /** The data file of this pack. */
+    private final File dataFile;
+
+    /** The open data file, read at given positions so that any number of
+     *  streams and threads can share it. */
+    private final FileChannel data;
+
+    /** The memory-mapped index of this pack. */
+    private final MappedByteBuffer index;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    private Pack(File indexFile, File dataFile) throws IOException {
+        this.dataFile = dataFile;
+        try (FileChannel ch = FileChannel.open(indexFile.toPath())) {
+            index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw error("Bad pack index %s", indexFile.getName());
+        }
+        count = index.getInt(8);
+        data = FileChannel.open(dataFile.toPath());
+        Trace.fileOpened();
+    }
+
+    /** Returns all packs of the repository. */
+    static List<Pack> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(Repository.PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (!name.endsWith(".idx")) {
+                        continue;
+                    }
+                    String base = name.substring(0, name.length() - 4);
+                    try {
+                        packs.add(new Pack(join(Repository.PACK_DIR, name),
+                                join(Repository.PACK_DIR, base + ".pack")));
+                    } catch (IOException excp) {
+                        throw error("Failed to open pack %s", base);
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Close and forget the loaded packs, so that they are read again on next
+     *  use. */
+    static void reload() {
+        if (packs != null) {
+            for (Pack p : packs) {
+                try {
+                    p.data.close();
+                } catch (IOException excp) {
+                    // Nothing is lost: the pack is only ever read.
+                }
+            }
+        }
+        packs = null;
+    }
+
+    /** Returns the kind byte of the objects stored in the loose directory DIR. */
+    static int kindOf(File dir) {
+        for (int i = 0; i < KINDS.length; i++) {
+            if (KINDS[i].equals(dir.getName())) {
+                return i;
+            }
+        }
+        throw error("Unknown object kind %s", dir.getName());
+    }
+
+    /** Returns the full ids of objects of KIND in all packs starting with PREFIX. */
+    static List<String> matchAll(String prefix, int kind) {
+        List<String> res = new ArrayList<>();
+        for (Pack p : packs()) {
+            p.match(prefix, kind, res);
+        }
+        return res;
+    }
+
+    /** Returns a stream of the stored bytes of the object of KIND with the
+     *  full id UID, or null if no pack contains it. */
+    static InputStream openFromPacks(String uid, int kind) {
+        for (Pack p : packs()) {
+            int rec = p.find(uid, kind);
+            if (rec >= 0) {
+                return p.open(rec);
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if some pack contains the object of KIND with full id UID. */
+    static boolean inPacks(String uid, int kind) {
+        for (Pack p : packs()) {
+            if (p.find(uid, kind) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Add the ids of all packed objects of KIND to RES. */
+    static void allIds(int kind, Collection<String> res) {
+        for (Pack p : packs()) {
+            for (int i = 0; i < p.count; i++) {
+                if (p.kindAt(i) == kind) {
+                    res.add(p.idAt(i));
+                }
+            }
+        }
+    }
+
+    /** Add the ids of the objects of KIND in packs last modified at or after
+     *  CUTOFF (in milliseconds) to RES. */
+    static void idsSince(int kind, long cutoff, Collection<String> res) {
+        for (Pack p : packs()) {
+            if (p.dataFile.lastModified() < cutoff) {
+                continue;
+            }
+            for (int i = 0; i < p.count; i++) {
+                if (p.kindAt(i) == kind) {
+                    res.add(p.idAt(i));
+                }
+            }
+        }
+    }
+
+    /** Fold all loose objects and all existing packs into one new pack,
+     *  then delete the loose objects and the old packs. */
+    static void repack() {
+        List<Pack> old = packs();
+        List<Key> loose = new ArrayList<>();
+        for (int k = 0; k < KINDS.length; k++) {
+            for (String id : looseIds(join(Repository.OBJECT_DIR, KINDS[k]))) {
+                loose.add(new Key(id, k));
+            }
+        }
+        if (loose.isEmpty() && old.size() <= 1) {
+            return;
+        }
+
+        TreeMap<Key, Object[]> all = packedObjects(old);
+        for (Key key : loose) {
+            all.put(key, null);
+        }
+        String name = write(all);
+        deletePacks(old, name);
+        for (Key key : loose) {
+            File dir = join(Repository.OBJECT_DIR, KINDS[key.kind]);
+            File f = getObjectFile(key.id, dir);
+            f.delete();
+            File subDir = f.getParentFile();
+            String[] rest = subDir.list();
+            if (rest != null && rest.length == 0) {
+                subDir.delete();
+            }
+        }
+        reload();
+    }
+
+    /** Write the packs again without the objects of packs last modified
+     *  before CUTOFF (in milliseconds) for which KEEP does not hold, given
+     *  their kind and id. Loose objects are left alone. Returns the number of
+     *  objects dropped. */
+    static int prune(BiPredicate<Integer, String> keep, long cutoff) {
+        List<Pack> old = packs();
+        TreeMap<Key, Object[]> kept = new TreeMap<>();
+        Set<Key> dropped = new HashSet<>();
+        for (Pack p : old) {
+            boolean recent = p.dataFile.lastModified() >= cutoff;
+            for (int i = 0; i < p.count; i++) {
+                Key key = new Key(p.idAt(i), p.kindAt(i));
+                if (recent || keep.test(key.kind, key.id)) {
+                    kept.put(key, new Object[] {p, i});
+                } else {
+                    dropped.add(key);
+                }
+            }
+        }
+        dropped.removeAll(kept.keySet());
+        if (dropped.isEmpty()) {
+            return 0;
+        }
+        String name = kept.isEmpty() ? null : write(kept);
+        deletePacks(old, name);
+        reload();
+        return dropped.size();
+    }
+
+    /** Returns all objects of the packs OLD, by id and kind, each as its pack
+     *  and its record there. */
+    private static TreeMap<Key, Object[]> packedObjects(List<Pack> old) {
+        TreeMap<Key, Object[]> res = new TreeMap<>();
+        for (Pack p : old) {
+            for (int i = 0; i < p.count; i++) {
+                res.put(new Key(p.idAt(i), p.kindAt(i)), new Object[] {p, i});
+            }
+        }
+        return res;
+    }
+
+    /** Write the objects ALL, by id and kind, each given as either its pack
+     *  and record or null for a loose object, to a new pack. Returns the name
+     *  of the pack. */
+    private static String write(TreeMap<Key, Object[]> all) {
+        if (!Repository.PACK_DIR.exists() && !Repository.PACK_DIR.mkdirs()) {
+            throw error("repack: failed to create %s", Repository.PACK_DIR.getName());
+        }
+        StringBuilder keys = new StringBuilder();
+        for (Key key : all.keySet()) {
+            keys.append(key.id).append(key.kind);
+        }
+        String name = "pack-" + sha1(keys.toString());
+        File tmpData = join(Repository.PACK_DIR, name + ".pack.tmp");
+        File tmpIndex = join(Repository.PACK_DIR, name + ".idx.tmp");
+        try {
+            long[] offsets = new long[all.size()];
+            long[] lengths = new long[all.size()];
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpData.toPath())))) {
+                out.writeInt(DATA_MAGIC);
+                out.writeInt(VERSION);
+                long pos = 8;
+                int i = 0;
+                for (Map.Entry<Key, Object[]> e : all.entrySet()) {
+                    Key key = e.getKey();
+                    Object[] src = e.getValue();
+                    InputStream in;
+                    if (src == null) {
+                        in = Files.newInputStream(getObjectFile(key.id,
+                                join(Repository.OBJECT_DIR, KINDS[key.kind])).toPath());
+                    } else {
+                        in = ((Pack) src[0]).open((int) src[1]);
+                    }
+                    long length;
+                    try (InputStream obj = in) {
+                        length = copy(obj, out, null);
+                    }
+                    offsets[i] = pos;
+                    lengths[i] = length;
+                    pos += length;
+                    i++;
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpIndex.toPath())))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(all.size());
+                int i = 0;
+                for (Key key : all.keySet()) {
+                    out.write(hexToBytes(key.id));
+                    out.writeByte(key.kind);
+                    out.write(new byte[3]);
+                    out.writeLong(offsets[i]);
+                    out.writeLong(lengths[i]);
+                    i++;
+                }
+            }
+
+            // The index is moved last, so a pack without index is never read.
+            Files.move(tmpData.toPath(), join(Repository.PACK_DIR, name + ".pack").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpIndex.toPath(), join(Repository.PACK_DIR, name + ".idx").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmpData.delete();
+            tmpIndex.delete();
+            throw error("repack: %s", excp.getMessage());
+        }
+        return name;
+    }
+
+    /** Delete the packs OLD, except the one named NAME. */
+    private static void deletePacks(List<Pack> old, String name) {
+        for (Pack p : old) {
+            if (!p.dataFile.getName().equals(name + ".pack")) {
+                String base = p.dataFile.getName();
+                base = base.substring(0, base.length() - 5);
+                join(Repository.PACK_DIR, base + ".idx").delete();
+                p.dataFile.delete();
+            }
+        }
+    }
+
+    /** Returns the ids of all loose objects under DIR, in sorted order. */
+    static List<String> looseIds(File dir) {
+        List<String> res = new ArrayList<>();
+        String[] subDirs = dir.list();
+        if (subDirs == null) {
+            return res;
+        }
+        Arrays.sort(subDirs);
+        for (String subDir : subDirs) {
+            List<String> names = plainFilenamesIn(join(dir, subDir));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                res.add(subDir + name);
+            }
+        }
+        return res;
+    }
+
+    /** Add the ids of objects of KIND in this pack starting with PREFIX to RES. */
+    private void match(String prefix, int kind, List<String> res) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && comparePrefix(i, prefix) == 0; i++) {
+            if (kindAt(i) == kind) {
+                res.add(idAt(i));
+            }
+        }
+    }
+
+    /** Returns the record of the object of KIND with full id UID, or -1. */
+    private int find(String uid, int kind) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(mid, uid) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && comparePrefix(i, uid) == 0; i++) {
+            if (kindAt(i) == kind) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the leading hex digits of the id of record REC with PREFIX. */
+    private int comparePrefix(int rec, String prefix) {
+        int base = HEADER_SIZE + rec * RECORD_SIZE;
+        for (int i = 0; i < prefix.length(); i++) {
+            int b = index.get(base + i / 2) & 0xff;
+            int nibble = (i % 2 == 0) ? b >>> 4 : b & 0xf;
+            int c = nibble - Character.digit(prefix.charAt(i), 16);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the full id of record REC. */
+    private String idAt(int rec) {
+        byte[] id = new byte[ID_BYTES];
+        int base = HEADER_SIZE + rec * RECORD_SIZE;
+        for (int i = 0; i < ID_BYTES; i++) {
+            id[i] = index.get(base + i);
+        }
+        return bytesToHex(id);
+    }
+
+    /** Returns the kind of record REC. */
+    private int kindAt(int rec) {
+        return index.get(HEADER_SIZE + rec * RECORD_SIZE + ID_BYTES);
+    }
+
+    /** Returns a stream of the stored bytes of record REC. */
+    private InputStream open(int rec) {
+        int base = HEADER_SIZE + rec * RECORD_SIZE;
+        long offset = index.getLong(base + 24);
+        long length = index.getLong(base + 32);
+        Trace.read(length);
+        return new BufferedInputStream(new Region(offset, length), BUFFER_SIZE);
+    }
+
+    /** A stream of LENGTH bytes of the data file from a given offset, which
+     *  must not end before them. Closing it leaves the data file open. */
+    private class Region extends InputStream {
+        /** The offset of the next byte. */
+        private long pos;
+
+        /** Number of bytes left. */
+        private long remaining;
+
+        Region(long offset, long length) {
+            pos = offset;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = data.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), pos);
+            if (n < 0) {
+                throw error("Truncated pack %s", dataFile.getName());
+            }
+            pos += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, remaining));
+            pos += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+    }
+
+    /** The name of an object in a pack: its id and kind, ordered as in the
+     *  index. */
+    private static class Key implements Comparable<Key> {
+        final String id;
+        final int kind;
+
+        Key(String id, int kind) {
+            this.id = id;
+            this.kind = kind;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int c = id.compareTo(other.id);
+            return c != 0 ? c : Integer.compare(kind, other.kind);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && compareTo((Key) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode() * KINDS.length + kind;
+        }
+    }
+
+    /** Returns the raw bytes of the hexadecimal numeral HEX. */
+    static byte[] hexToBytes(String hex) {
+        byte[] res = new byte[hex.length() / 2];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return res;
+    }
+
+    /** Returns the hexadecimal numeral of the raw bytes BYTES. */
+    static String bytesToHex(byte[] bytes) {
+        StringBuilder res = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            res.append(Character.forDigit((b >>> 4) & 0xf, 16));
+            res.append(Character.forDigit(b & 0xf, 16));
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+import static gitlet.Utils.*;
+
+/** Represents the lock of a repository, shared between processes.
+ *  Every command holds the lock file .gitlet/lock while it runs: commands
+ *  that only read the repository hold a shared lock, so they run together,
+ *  and commands that change it hold an exclusive lock, so they run alone. A
+ *  command under the shared lock that finds a derived file to write (a
+ *  commit-graph to extend, an index to fold, the stat cache of status to
+ *  save) never writes it, but starts again under the exclusive lock.
+ *  The operating system releases the lock when the process exits, even if it
+ *  fails.
+ *
+ *  @author fqcd
+ */
+class RepoLock {
+    /** The lock file. */
+    static final File LOCK_FILE = join(Repository.GITLET_DIR, "lock");
+
+    /** The channel of the lock file while the lock is held, or null. */
+    private static FileChannel channel = null;
+
+    /** The lock held, or null. */
+    private static FileLock lock = null;
+
+    /** Take the lock of the repository, shared if SHARED, waiting for other
+     *  processes to release it. Returns false, doing nothing, if this process
+     *  already holds it or there is no repository yet. */
+    static boolean acquire(boolean shared) {
+        if (lock != null || !Repository.GITLET_DIR.isDirectory()) {
+            return false;
+        }
+        try {
+            channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lock = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException excp) {
+            release();
+            throw error("Failed to lock the repository: %s", excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Returns true if this process holds the shared lock. */
+    static boolean isShared() {
+        return lock != null && lock.isShared();
+    }
+
+    /** Thrown by a command that must write the repository, a derived file
+     *  such as the commit-graph for instance, while it holds only the shared
+     *  lock. It is thrown before anything is written or printed, and the
+     *  command is then run again from the start under the exclusive lock
+     *  (see Main.run), so whatever it read is read again. */
+    static class ExclusiveNeeded extends RuntimeException {
+        ExclusiveNeeded() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Make sure that this process may write the repository: under the
+     *  shared lock, throw ExclusiveNeeded. */
+    static void requireExclusive() {
+        if (isShared()) {
+            throw new ExclusiveNeeded();
+        }
+    }
+
+    /** Release the lock, if it is held. */
+    static void release() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            throw error("Failed to unlock the repository: %s", excp.getMessage());
+        } finally {
+            lock = null;
+            channel = null;
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.IntStream;
 
 import static gitlet.Utils.*;
 
@@ -26,6 +32,19 @@ public class Repository {
     /** The blobs' directory. */
     public static final File BLOB_DIR = join(OBJECT_DIR, "blobs");
 
+    /** The trees' directory. */
+    public static final File TREE_DIR = join(OBJECT_DIR, "trees");
+
+    /** The chunks' directory, which contains the chunks of large blobs. */
+    public static final File CHUNK_DIR = join(OBJECT_DIR, "chunks");
+
+    /** The packs' directory, which contains packed commits, blobs, trees and chunks. */
+    public static final File PACK_DIR = join(OBJECT_DIR, "pack");
+
+    /** The config key that makes checkout and reset report, on standard
+     *  error, the files they wrote and the bytes they moved. */
+    static final String CHECKOUT_REPORT = "checkout.report";
+
     /** The refs file, which contains maps branch names to latest Commit UID */
     public static final File BRANCHES = join(GITLET_DIR, "branches");
 
@@ -38,9 +57,11 @@ public class Repository {
             System.out.println("A Gitlet version-control system already exists in the current directory.");
             return;
         }
-        if (!COMMIT_DIR.mkdirs() || !BLOB_DIR.mkdirs()) {
+        if (!COMMIT_DIR.mkdirs() || !BLOB_DIR.mkdirs() || !TREE_DIR.mkdirs()
+                || !CHUNK_DIR.mkdirs()) {
             System.out.println("Failed to create directories");
         }
+        Config.set(Config.FORMAT, Integer.toString(Config.CUR_FORMAT));
         Commit first = new Commit("initial commit");
         String id = Commit.getId(first);
         first.writeCommit();
@@ -51,7 +72,7 @@ public class Repository {
 
         // Initialize STAGE_AREA file.
         Stage stage = new Stage();
-        writeObject(STAGE_AREA, stage);
+        stage.writeStage();
     }
 
     /** Stage file according to fileName --add */
@@ -61,17 +82,18 @@ public class Repository {
             System.out.println("File does not exist.");
             return;
         }
-        String fid = Stage.getId(f);
+        Stage stage = Stage.readStage();
+        String fid = stage.getId(f);
 
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         String curCommitId = branches.getCurCommit();
         Commit curCommit = readCommit(curCommitId);
-        Stage stage = readObject(STAGE_AREA, Stage.class);
 
-        if (curCommit.blobs.containsKey(fileName) && curCommit.blobs.get(fileName).equals(fid)) {
+        String curId = curCommit.getBlob(fileName);
+        if (fid.equals(curId)) {
             stage.index.remove(fileName);
         } else {
-            stage.trackFile(f);
+            stage.trackFile(f, fid, curId);
         }
 
         stage.writeStage();
@@ -79,12 +101,13 @@ public class Repository {
 
     /** Generate new commit. --commit */
     public static void newCommit(String message) {
-        Stage stage = readObject(STAGE_AREA, Stage.class);
+        Stage stage = Stage.readStage();
         if (stage.index.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Trace.phase("commit");
+        Branches branches = Branches.readBranches();
         Commit latest = new Commit(message, branches.getCurCommit(), null);
 
         stage.finalCommit(latest);
@@ -98,11 +121,12 @@ public class Repository {
 
     /** Remove file. --rm */
     public static void removeFile(String fileName) {
-        Stage stage = readObject(STAGE_AREA, Stage.class);
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Stage stage = Stage.readStage();
+        Branches branches = Branches.readBranches();
         Commit commit = readCommit(branches.getCurCommit());
 
-        if (!stage.index.containsKey(fileName) && !commit.blobs.containsKey(fileName)) {
+        String curId = commit.getBlob(fileName);
+        if (!stage.index.containsKey(fileName) && curId == null) {
             System.out.println("No reason to remove the file.");
             return;
         }
@@ -115,7 +139,7 @@ public class Repository {
         } else {
             stage.index.put(fileName, Stage.REMOVAL);
             File f = join(CWD, fileName);
-            if (f.exists() && Stage.getId(f).equals(commit.blobs.get(fileName))) {
+            if (f.exists() && stage.getId(f).equals(curId)) {
                 restrictedDelete(fileName);
             }
             stage.writeStage();
@@ -127,7 +151,7 @@ public class Repository {
     public static void checkoutFile(String commitId, String fileName) {
         Commit commit = null;
         if (commitId == null) {
-            Branches branches = readObject(BRANCHES, Branches.class);
+            Branches branches = Branches.readBranches();
             commit = readCommit(branches.getCurCommit());
         } else {
             commit = readCommit(commitId);
@@ -138,20 +162,16 @@ public class Repository {
             return;
         }
 
-        if (!commit.blobs.containsKey(fileName)) {
+        String fileUid = commit.getBlob(fileName);
+        if (fileUid == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-
-        String fileUid = commit.blobs.get(fileName);
-        File file = getObjectFile(fileUid, BLOB_DIR);
-        byte[] contents = readContents(file);
-
-        writeContents(join(CWD, fileName), (Object) contents);
+        writeBlobTo(fileUid, join(CWD, fileName));
     }
 
     public static void checkoutBranch(String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         String commitId = branches.getCommit(branchName);
         if (commitId == null) {
             System.out.println("No such branch exists.");
@@ -164,8 +184,8 @@ public class Repository {
         Commit newCommit = Utils.readCommit(commitId);
         Commit oldCommit = Utils.readCommit(branches.getCurCommit());
 
-        if (switchCommit(newCommit, oldCommit)) {
-            Stage stage = readObject(STAGE_AREA, Stage.class);
+        Stage stage = Stage.readStage();
+        if (switchCommit(newCommit, oldCommit, stage)) {
             stage.index.clear();
             stage.writeStage();
 
@@ -175,94 +195,138 @@ public class Repository {
         }
     }
 
-    /** Switch the contents of files in the current folder from one commit to another. */
-    public static boolean switchCommit(Commit newCommit, Commit oldCommit) {
-        Set<String> exclFiles = new HashSet<>(newCommit.blobs.keySet());
-        Set<String> deleteFiles = new HashSet<>();
-        for (String oldFile : oldCommit.blobs.keySet()) {
-            if (!exclFiles.remove(oldFile)) {
-                deleteFiles.add(oldFile);
-            }
-        }
+    /** Switch the contents of files in the current folder from one commit to
+     *  another. Only paths that differ are touched: files of OLDCOMMIT missing
+     *  from NEWCOMMIT are deleted, and a file of NEWCOMMIT is written only if
+     *  its blob changed or the working file does not match it, which the stat
+     *  cache of STAGE tells without reading unchanged files. The blobs are
+     *  written in parallel. */
+    public static boolean switchCommit(Commit newCommit, Commit oldCommit, Stage stage) {
+        Map<String, String> newBlobs = newCommit.getBlobs();
+        Map<String, String> oldBlobs = oldCommit.getBlobs();
 
         List<String> workingFiles = plainFilenamesIn(CWD);
         for (String workingFile : workingFiles) {
-            if (exclFiles.contains(workingFile)) {
+            if (newBlobs.containsKey(workingFile) && !oldBlobs.containsKey(workingFile)) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
                 return false;
             }
         }
 
-        for (String deleteFile : deleteFiles) {
-            restrictedDelete(new File(CWD, deleteFile));
+        int deleted = 0;
+        for (String oldFile : oldBlobs.keySet()) {
+            if (!newBlobs.containsKey(oldFile) && restrictedDelete(new File(CWD, oldFile))) {
+                deleted++;
+            }
         }
 
-        for (Map.Entry<String, String> entry : newCommit.blobs.entrySet()) {
+        List<String> names = new ArrayList<>();
+        List<String> blobIds = new ArrayList<>();
+        for (Map.Entry<String, String> entry : newBlobs.entrySet()) {
             String fileName = entry.getKey();
             String blobId = entry.getValue();
-            byte[] content = readContents(getObjectFile(blobId, BLOB_DIR));
-            writeContents(join(CWD, fileName), content);
+            if (blobId.equals(oldBlobs.get(fileName))
+                    && blobId.equals(stage.getId(join(CWD, fileName)))) {
+                continue;
+            }
+            names.add(fileName);
+            blobIds.add(blobId);
         }
+        Trace.phase("write files");
+        long bytes = writeBlobs(names, blobIds, Config.parallelism());
 
+        if (Config.getBoolean(CHECKOUT_REPORT)) {
+            System.err.printf("checkout: %d files written (%d bytes), %d deleted, %d unchanged%n",
+                    names.size(), bytes, deleted, newBlobs.size() - names.size());
+        }
         return true;
     }
 
+    /** Write the blob BLOBIDS[i] to the working file NAMES[i], for each i, on
+     *  PARALLELISM threads. Returns the number of bytes written. */
+    private static long writeBlobs(List<String> names, List<String> blobIds, int parallelism) {
+        long[] written = new long[names.size()];
+        if (parallelism <= 1 || names.size() <= 1) {
+            for (int i = 0; i < written.length; i++) {
+                written[i] = writeBlobTo(blobIds.get(i), join(CWD, names.get(i)));
+            }
+        } else {
+            // Load the lazily read state on this thread before sharing it.
+            Config.format();
+            Pack.packs();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, written.length).parallel()
+                        .forEach(i -> written[i] = writeBlobTo(blobIds.get(i),
+                                join(CWD, names.get(i))))).get();
+            } catch (InterruptedException excp) {
+                throw error("Failed to write working files: %s", excp.getMessage());
+            } catch (ExecutionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw error("Failed to write working files: %s", excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        long total = 0;
+        for (long n : written) {
+            total += n;
+        }
+        return total;
+    }
+
     /** Traverse all first parent commits starting from the current commit and
      * print the commit information. --log */
     public static void printCurLog() {
-        Branches branches = readObject(BRANCHES, Branches.class);
-        Commit commit = readCommit(branches.getCurCommit());
-        String commitId = branches.getCurCommit();
-        commit.outputLog();
+        Branches branches = Branches.readBranches();
+        int pos = CommitGraph.find(branches.getCurCommit());
+        CommitGraph graph = CommitGraph.read();
 
-        while (commit.parent1 != null) {
-            commitId = commit.parent1;
-            commit = readCommit(commitId);
+        while (pos != CommitGraph.NONE) {
+            Commit commit = readCommit(graph.idAt(pos));
             commit.outputLog();
+            pos = graph.parent1(pos);
         }
     }
 
     /** Print all commit information in unordered order. --global-log */
     public static void printAllLog() {
-        String[] subDirs = COMMIT_DIR.list();
-        for (String subDir : subDirs) {
-            File sub = join(COMMIT_DIR, subDir);
-            List<String> commitIds = plainFilenamesIn(sub);
-
-            for (String commitId : commitIds) {
-                String fullId = subDir + commitId;
-                Commit commit = readObject(join(sub, commitId), Commit.class);
-                commit.outputLog();
-            }
-        }
+        CommitJournal.printAll();
     }
 
     /** Print all commit ids that contain the given commit message. --find */
     public static void findLog(String message) {
-        String[] subDirs = COMMIT_DIR.list();
-        boolean exist = false;
-        for (String subDir : subDirs) {
-            File sub = join(COMMIT_DIR, subDir);
-            List<String> commitIds = plainFilenamesIn(sub);
-
-            for (String commitId : commitIds) {
-                String fullId = subDir + commitId;
-                Commit commit = readObject(join(sub, commitId), Commit.class);
-                if (commit.getMessage().contains(message)) {
-                    System.out.println(fullId);
-                    exist = true;
-                }
-            }
+        printFound(MessageIndex.find(message));
+    }
+
+    /** Print all commit ids whose message contains a match of the regular
+     *  expression REGEX. --find --regex */
+    public static void findLogRegex(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            System.out.println("Invalid regular expression: " + excp.getDescription());
+            return;
         }
+        printFound(MessageIndex.findRegex(pattern));
+    }
 
-        if (!exist) {
+    /** Print the commit ids IDS, or that none were found. */
+    private static void printFound(List<String> ids) {
+        for (String commitId : ids) {
+            System.out.println(commitId);
+        }
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
     /** Create new branch with the given name. --branch */
     public static void newBranch(String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         if (!branches.newBranch(branchName)) {
             System.out.println("A branch with that name already exists.");
             return;
@@ -274,7 +338,7 @@ public class Repository {
         StringBuffer output = new StringBuffer();
         output.append("=== Branches ===\n");
 
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         List<String> branchNames = branches.getBranchNames();
         output.append("*").append(branches.getCurBranch()).append("\n");
         for (String name : branchNames) {
@@ -284,7 +348,7 @@ public class Repository {
         }
         output.append("\n");
 
-        Stage stage = readObject(STAGE_AREA, Stage.class);
+        Stage stage = Stage.readStage();
         List<String> stagedFiles = new ArrayList<>();
         List<String> removedFiles = new ArrayList<>();
         for (Map.Entry<String, String> e : stage.index.entrySet()) {
@@ -313,36 +377,35 @@ public class Repository {
         Set<String> workingFiles = new HashSet<>(plainFilenamesIn(CWD));
         List<String> modifiedFiles = new ArrayList<>();
         List<String> deletedFiles = new ArrayList<>();
-        for (Map.Entry<String, String> e : commit.blobs.entrySet()) {
-            String name = e.getKey();
-            if (!stage.index.containsKey(name)) {
-                if (workingFiles.contains(name)) {
-                    byte[] contents = readContents(join(CWD, name));
-                    String workingId = sha1(contents, name);
-                    if (!workingId.equals(e.getValue())) {
-                        modifiedFiles.add(name);
-                    }
-                } else {
-                    deletedFiles.add(name);
-                }
+
+        // The id each tracked file should have: staged if it is staged, else committed.
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (Map.Entry<String, String> e : commit.getBlobs().entrySet()) {
+            if (!stage.index.containsKey(e.getKey())) {
+                expected.put(e.getKey(), e.getValue());
             }
         }
         for (Map.Entry<String, String> e : stage.index.entrySet()) {
-            String name = e.getKey();
             if (!e.getValue().equals(Stage.REMOVAL)) {
-                if (workingFiles.contains(name)) {
-                    byte[] contents = readContents(join(CWD, name));
-                    String workingId = sha1(contents, name);
-                    if (!workingId.equals(e.getValue())) {
-                        modifiedFiles.add(name);
-                    }
-                } else {
-                    deletedFiles.add(name);
-                }
+                expected.put(e.getKey(), e.getValue());
+            }
+        }
+        List<File> present = new ArrayList<>();
+        for (String name : expected.keySet()) {
+            if (workingFiles.contains(name)) {
+                present.add(join(CWD, name));
+            } else {
+                deletedFiles.add(name);
+            }
+        }
+        Trace.phase("hash files");
+        TreeMap<String, String> workingIds = stage.getIds(present, Config.parallelism());
+        Trace.phase("print");
+        for (Map.Entry<String, String> e : workingIds.entrySet()) {
+            if (!e.getValue().equals(expected.get(e.getKey()))) {
+                modifiedFiles.add(e.getKey());
             }
         }
-        Collections.sort(modifiedFiles);
-        Collections.sort(deletedFiles);
 
         output.append("=== Modifications Not Staged For Commit ===\n");
         int i = 0, j = 0;
@@ -368,7 +431,7 @@ public class Repository {
         output.append("=== Untracked Files ===\n");
         List<String> untrackedFiles = new ArrayList<>();
         for (String name : workingFiles) {
-            if (!commit.blobs.containsKey(name) && !stage.index.containsKey(name)) {
+            if (!commit.getBlobs().containsKey(name) && !stage.index.containsKey(name)) {
                 untrackedFiles.add(name);
             }
         }
@@ -378,12 +441,13 @@ public class Repository {
         }
         output.append("\n");
 
+        stage.writeStatsIfChanged();
         System.out.printf(output.toString());
     }
 
     /** Deletes the branch with the given name. --rm-branch */
     public static void removeBranch(String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         if (branches.getCurBranch().equals(branchName)) {
             System.out.println("Cannot remove the current branch.");
             return;
@@ -401,14 +465,14 @@ public class Repository {
             return;
         }
 
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         Commit oldCommit = readCommit(branches.getCurCommit());
 
-        if (switchCommit(newCommit, oldCommit)) {
+        Stage stage = Stage.readStage();
+        if (switchCommit(newCommit, oldCommit, stage)) {
             branches.update(newCommit.id);
             branches.writeBranches();
 
-            Stage stage = readObject(STAGE_AREA, Stage.class);
             stage.index.clear();
             stage.writeStage();
         }
@@ -416,13 +480,13 @@ public class Repository {
 
     /** Merge the branch with the given branch name into the current branch. --merge */
     public static void mergeBranch(String branchName) {
-        Stage stage = readObject(STAGE_AREA, Stage.class);
+        Stage stage = Stage.readStage();
         if (!stage.index.isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return;
         }
 
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         if (branchName.equals(branches.getCurBranch())) {
             System.out.println("Cannot merge a branch with itself.");
             return;
@@ -435,16 +499,17 @@ public class Repository {
         Commit targetCommit = readCommit(branches.getCommit(branchName));
 
         // Checks if there are untracked files that will be overwritten.
-        Set<String> curFiles = new HashSet<>(curCommit.blobs.keySet());
-        Set<String> targetFiles = new HashSet<>(targetCommit.blobs.keySet());
+        Map<String, String> curFiles = curCommit.getBlobs();
+        Map<String, String> targetFiles = targetCommit.getBlobs();
         List<String> workingFiles = plainFilenamesIn(CWD);
         for (String workingFile : workingFiles) {
-            if (!curFiles.contains(workingFile) && targetFiles.contains(workingFile)) {
+            if (!curFiles.containsKey(workingFile) && targetFiles.containsKey(workingFile)) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
                 return;
             }
         }
 
+        Trace.phase("split point");
         String sp = Commit.getSplitPoint(branches.getCurCommit(), branches.getCommit(branchName));
         if (sp == null) {
             System.out.println("mergeBranch: SplitPoint is null!!!");
@@ -462,73 +527,14 @@ public class Repository {
             return;
         }
 
-        Commit lca = readCommit(sp);
-        boolean conflictFlag = false;
-        File stagedFile;
-        for (Map.Entry<String, String> e : lca.blobs.entrySet()) {
-            String fileName = e.getKey();
-            String blobId = e.getValue();
-            targetFiles.remove(fileName);
+        Trace.phase("plan");
+        MergePlan plan = MergePlan.plan(readCommit(sp).getBlobs(), curCommit.getBlobs(),
+                targetCommit.getBlobs());
 
-            if (curCommit.blobs.containsKey(fileName) && targetCommit.blobs.containsKey(fileName)) {
-                if (curCommit.blobs.get(fileName).equals(targetCommit.blobs.get(fileName))) {
-                    continue;
-                } else if (targetCommit.blobs.get(fileName).equals(blobId)) {
-                    continue;
-                } else if (curCommit.blobs.get(fileName).equals(blobId)) {
-                    stagedFile = join(CWD, fileName);
-                    byte[] contents = readContents(getObjectFile(targetCommit.blobs.get(fileName), BLOB_DIR));
-                    writeContents(stagedFile, contents);
-                    stage.trackFile(stagedFile);
-                } else {
-                    conflictFlag = true;
-                    stagedFile = fixConflict(getObjectFile(curCommit.blobs.get(fileName), BLOB_DIR),
-                            getObjectFile(targetCommit.blobs.get(fileName), BLOB_DIR),
-                            fileName);
-                    stage.trackFile(stagedFile);
-                }
-            } else if (!curCommit.blobs.containsKey(fileName) && targetCommit.blobs.containsKey(fileName)) {
-                if (targetCommit.blobs.get(fileName).equals(blobId)) {
-                    continue;
-                } else {
-                    conflictFlag = true;
-                    stagedFile = fixConflict(null,
-                            getObjectFile(targetCommit.blobs.get(fileName), BLOB_DIR),
-                            fileName);
-                    stage.trackFile(stagedFile);
-                }
-            } else if (curCommit.blobs.containsKey(fileName) && !targetCommit.blobs.containsKey(fileName)) {
-                if (curCommit.blobs.get(fileName).equals(blobId)) {
-                    stage.index.put(fileName, Stage.REMOVAL);
-                    stagedFile = join(CWD, fileName);
-                    if (stagedFile.exists() && Stage.getId(stagedFile).equals(blobId)) {
-                        restrictedDelete(stagedFile);
-                    }
-                } else {
-                    conflictFlag = true;
-                    stagedFile = fixConflict(getObjectFile(curCommit.blobs.get(fileName), BLOB_DIR),
-                            null,
-                            fileName);
-                    stage.trackFile(stagedFile);
-                }
-            }
-        }
-
-        for (String name : targetFiles) {
-            if (!curFiles.contains(name)) {
-                stagedFile = join(CWD, name);
-                byte[] contents = readContents(getObjectFile(targetCommit.blobs.get(name), BLOB_DIR));
-                writeContents(stagedFile, contents);
-                stage.trackFile(stagedFile);
-            } else if (!curCommit.blobs.get(name).equals(targetCommit.blobs.get(name))) {
-                conflictFlag = true;
-                stagedFile = fixConflict(getObjectFile(curCommit.blobs.get(name), BLOB_DIR),
-                        getObjectFile(targetCommit.blobs.get(name), BLOB_DIR),
-                        name);
-                stage.trackFile(stagedFile);
-            }
-        }
+        Trace.phase("merge files");
+        boolean conflictFlag = plan.execute(stage, Config.parallelism());
 
+        Trace.phase("commit");
         String message = "Merged " + branchName + " into " + branches.getCurBranch() + ".";
         Commit mergedCommit = new Commit(message, branches.getCurCommit(), branches.getCommit(branchName));
         stage.finalCommit(mergedCommit);
@@ -536,7 +542,7 @@ public class Repository {
         String uid = Commit.getId(mergedCommit);
         mergedCommit.writeCommit();
 
-        branches.setCurCommit(uid);
+        branches.update(uid);
         branches.writeBranches();
 
         if (conflictFlag) {
@@ -544,41 +550,234 @@ public class Repository {
         }
     }
 
-    /** Dealing with merge conflicts in a single file. */
-    private static File fixConflict(File curBlob, File otherBlob, String fileName) {
-        String headLine = "<<<<<<< HEAD\n";
-        String middleLine = "=======\n";
-        String tailLine = ">>>>>>>\n";
-        File stagedFile = join(CWD, fileName);
+    /** Print the changes from the commit FROMID to the commit TOID as unified
+     *  diffs, one per changed file. Either may also be a branch name. A null
+     *  FROMID is the current commit, and a null TOID is the working directory,
+     *  whose files are those tracked by the current commit or staged for
+     *  addition. --diff */
+    public static void diff(String fromId, String toId) {
+        Branches branches = Branches.readBranches();
+        Commit from = readCommit(fromId == null ? branches.getCurCommit() : commitOrBranch(branches, fromId));
+        Commit to = toId == null ? null : readCommit(commitOrBranch(branches, toId));
+        if (from == null || (toId != null && to == null)) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+
+        Map<String, String> oldFiles = from.getBlobs();
+        Stage stage = Stage.readStage();
+        TreeMap<String, String> newFiles = new TreeMap<>();
+        if (to != null) {
+            newFiles.putAll(to.getBlobs());
+        } else {
+            Set<String> tracked = new HashSet<>(readCommit(branches.getCurCommit()).getBlobs().keySet());
+            for (Map.Entry<String, String> e : stage.index.entrySet()) {
+                if (e.getValue().equals(Stage.REMOVAL)) {
+                    tracked.remove(e.getKey());
+                } else {
+                    tracked.add(e.getKey());
+                }
+            }
+            for (String name : tracked) {
+                String id = stage.getId(join(CWD, name));
+                if (id != null) {
+                    newFiles.put(name, id);
+                }
+            }
+        }
+
+        stage.writeStatsIfChanged();
+
+        TreeSet<String> names = new TreeSet<>(oldFiles.keySet());
+        names.addAll(newFiles.keySet());
+        try {
+            for (String name : names) {
+                String oldId = oldFiles.get(name);
+                String newId = newFiles.get(name);
+                if (Objects.equals(oldId, newId)) {
+                    continue;
+                }
+                byte[] newContents = newId == null ? null
+                        : to == null ? readContents(join(CWD, name)) : loadObject(newId, BLOB_DIR);
+                Diff.writeUnified(System.out, name,
+                        oldId == null ? null : loadObject(oldId, BLOB_DIR), newContents);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        System.out.flush();
+    }
+
+    /** Returns the head commit of the branch NAME, or NAME if there is no such branch. */
+    private static String commitOrBranch(Branches branches, String name) {
+        String head = branches.getCommit(name);
+        return head != null ? head : name;
+    }
+
+    /** Returns the graph position of the commit or branch head NAME, or NONE
+     *  if there is no such commit. */
+    private static int commitPosition(Branches branches, String name) {
+        String uid = resolveId(commitOrBranch(branches, name), COMMIT_DIR);
+        return uid == null ? CommitGraph.NONE : CommitGraph.find(uid);
+    }
 
-        if (curBlob == null) {
-            byte[] contentOfOther = readContents(otherBlob);
-            writeContents(stagedFile, headLine, middleLine, contentOfOther, tailLine);
-        } else if (otherBlob == null) {
-            byte[] contentOfCur = readContents(curBlob);
-            writeContents(stagedFile, headLine, contentOfCur, middleLine, tailLine);
+    /** Print whether the commit ANCESTOR is the commit DESCENDANT or one of its
+     *  ancestors. --is-ancestor */
+    public static void isAncestor(String ancestor, String descendant) {
+        Branches branches = Branches.readBranches();
+        int a = commitPosition(branches, ancestor);
+        int b = commitPosition(branches, descendant);
+        if (a == CommitGraph.NONE || b == CommitGraph.NONE) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        System.out.println(CommitBitmaps.read(CommitGraph.read()).isAncestor(a, b));
+    }
+
+    /** Print the ids of the commits reachable from the commits of REVS, but not
+     *  from those of REVS written ^REV, newest first. --rev-list */
+    public static void revList(String[] revs) {
+        Branches branches = Branches.readBranches();
+        List<Integer> include = new ArrayList<>();
+        List<Integer> exclude = new ArrayList<>();
+        for (String rev : revs) {
+            boolean negated = rev.startsWith("^");
+            int pos = commitPosition(branches, negated ? rev.substring(1) : rev);
+            if (pos == CommitGraph.NONE) {
+                System.out.println("No commit with that id exists.");
+                return;
+            }
+            (negated ? exclude : include).add(pos);
+        }
+
+        CommitGraph graph = CommitGraph.read();
+        CommitBitmaps bitmaps = CommitBitmaps.read(graph);
+        long[] bits = new long[(graph.size() + 63) >>> 6];
+        for (int pos : include) {
+            long[] reach = bitmaps.reach(pos);
+            for (int i = 0; i < reach.length; i++) {
+                bits[i] |= reach[i];
+            }
+        }
+        for (int pos : exclude) {
+            long[] reach = bitmaps.reach(pos);
+            for (int i = 0; i < reach.length; i++) {
+                bits[i] &= ~reach[i];
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        for (int pos = graph.size() - 1; pos >= 0; pos--) {
+            if (CommitBitmaps.contains(bits, pos)) {
+                out.append(graph.idAt(pos)).append('\n');
+            }
+        }
+        System.out.print(out);
+    }
+
+    /** Print the id of the newest best common ancestor of the commits A and B,
+     *  or of all of them, newest first, if ALL. --merge-base */
+    public static void mergeBase(String a, String b, boolean all) {
+        Branches branches = Branches.readBranches();
+        int posA = commitPosition(branches, a);
+        int posB = commitPosition(branches, b);
+        if (posA == CommitGraph.NONE || posB == CommitGraph.NONE) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        CommitGraph graph = CommitGraph.read();
+        StringBuilder out = new StringBuilder();
+        for (int pos : MergeBase.bases(graph, posA, posB)) {
+            out.append(graph.idAt(pos)).append('\n');
+            if (!all) {
+                break;
+            }
+        }
+        System.out.print(out);
+    }
+
+    /** Print or set a configuration value of the repository. --config */
+    public static void config(String key, String value) {
+        if (value == null) {
+            String cur = Config.get(key);
+            if (cur != null) {
+                System.out.println(cur);
+            }
         } else {
-            byte[] contentOfOther = readContents(otherBlob);
-            byte[] contentOfCur = readContents(curBlob);
-            writeContents(stagedFile, headLine, contentOfCur, middleLine, contentOfOther, tailLine);
+            Config.set(key, value);
         }
+    }
 
-        return stagedFile;
+    /** Convert the objects of an existing repository to the current object
+     *  format and the binary commit encoding. --migrate */
+    public static void migrate() {
+        int format = Config.format();
+        boolean packed = !Pack.packs().isEmpty();
+        for (String id : objectIds(COMMIT_DIR)) {
+            byte[] contents = loadObject(id, COMMIT_DIR);
+            if (format == Config.CUR_FORMAT && Commit.isEncoded(contents)) {
+                continue;
+            }
+            Commit commit = decodeCommit(contents, id);
+            writeStored(looseFile(id, COMMIT_DIR), commit.encode(), Config.CUR_FORMAT);
+        }
+        if (format != Config.CUR_FORMAT) {
+            for (String id : objectIds(BLOB_DIR)) {
+                writeStored(looseFile(id, BLOB_DIR), readBlob(id), Config.CUR_FORMAT);
+            }
+            for (String id : objectIds(TREE_DIR)) {
+                writeStored(looseFile(id, TREE_DIR), loadObject(id, TREE_DIR), Config.CUR_FORMAT);
+            }
+            Config.set(Config.FORMAT, Integer.toString(Config.CUR_FORMAT));
+        }
+        // Loose objects take precedence over packed ones when repacking.
+        if (packed) {
+            Pack.repack();
+        }
+    }
+
+    /** Fold loose objects into a pack. --repack */
+    public static void repack() {
+        Pack.repack();
+    }
+
+    /** Rebuild the commit-graph, the commit and message indexes and the commit
+     *  journal from the commit objects. --reindex */
+    public static void reindex() {
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+        CommitJournal.rebuild();
+    }
+
+    /** Delete the objects unreachable from the branches and the stage that
+     *  are older than GRACE seconds, or than the configured grace period if
+     *  GRACE is null. --gc */
+    public static void gc(String grace) {
+        long seconds;
+        try {
+            seconds = grace == null ? Config.gcGrace() : Long.parseLong(grace);
+        } catch (NumberFormatException excp) {
+            seconds = -1;
+        }
+        if (seconds < 0) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        GarbageCollector.run(seconds * 1000);
     }
 
     // these for Debug.
     public static void printStage() {
-        Stage stage = readObject(STAGE_AREA, Stage.class);
+        Stage stage = Stage.readStage();
         System.out.println(stage);
     }
 
     public static void printBranches() {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         System.out.println(branches);
     }
 
     public static void printCurCommit() {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = Branches.readBranches();
         Commit c = readCommit(branches.getCurCommit());
         System.out.println(c);
     }
@@ -1,60 +1,338 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class Stage implements Serializable {
+    /** Same as the version before the stat cache, so that old index files still load. */
+    private static final long serialVersionUID = 4314362039948888671L;
+
     public HashMap<String, String> index;
 
     public static final String REMOVAL = "removal";
 
+    /** Timestamp granularity assumed for the file system, in milliseconds. */
+    private static final long MTIME_GRANULARITY = 1000;
+
+    /** Map of the working file name to its stat data when it was last hashed. */
+    private HashMap<String, FileStat> stats;
+
+    /** Whether stats changed since the stage was read. */
+    private transient boolean statsChanged;
+
     public Stage() {
         index = new HashMap<>();
+        stats = new HashMap<>();
+    }
+
+    /** Stat data of a working file together with the id it hashed to. */
+    private static class FileStat implements Serializable {
+        /** The one the JVM derived before it was declared, so that existing
+         *  index files still load. */
+        private static final long serialVersionUID = -2527925054594634350L;
+
+        /** Size of the file in bytes. */
+        private long size;
+
+        /** Last modified time of the file in milliseconds. */
+        private long mtime;
+
+        /** Identity of the file (device and inode where available). */
+        private String fileKey;
+
+        /** Time at which the file was hashed, in milliseconds. */
+        private long hashedAt;
+
+        /** The id the contents hashed to. */
+        private String id;
+
+        /** Returns true if ATTRS describe the same unchanged file. A file whose
+         *  mtime falls in the same timestamp tick as the hash is racy: it may
+         *  have been modified again without a visible mtime change, so it is
+         *  never trusted. HASHEDAT is taken before the stat data is read, so a
+         *  modification after it always gets an mtime of its tick or later. */
+        private boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                && mtime == attrs.lastModifiedTime().toMillis()
+                && Objects.equals(fileKey, Objects.toString(attrs.fileKey(), null))
+                && mtime < hashedAt - hashedAt % MTIME_GRANULARITY;
+        }
     }
 
     /** Save file f in the staging area. If file f does not exist, return null. Otherwise, return its SHA-1 value. */
     public void trackFile(File f) {
-        if (!f.exists()) {
+        trackFile(f, null);
+    }
+
+    /** Track working file f, storing its contents as a delta against the
+     *  blob it had when staged before or, if it was not, against the blob
+     *  BASEID (which may be null), when that is smaller. */
+    public void trackFile(File f, String baseId) {
+        trackFile(f, getId(f), baseId);
+    }
+
+    /** Track working file f, whose id ID was just given by getId, as
+     *  trackFile(f, baseId) does. The file is not hashed again, and is not
+     *  even read if a blob with that id is stored already. */
+    public void trackFile(File f, String id, String baseId) {
+        if (id == null) {
             return;
         }
         String fileName = f.getName();
-        byte[] contents = Utils.readContents(f);
-        String id = Utils.sha1(contents, fileName);
-
-        if (!index.containsKey(fileName) || !index.get(fileName).equals(id)) {
-            Utils.saveBlob(contents, id);
-            index.put(fileName, id);
+        String staged = index.get(fileName);
+        if (id.equals(staged)) {
+            return;
+        }
+        if (staged != null && !staged.equals(REMOVAL)) {
+            baseId = staged;
         }
+        index.put(fileName, Utils.saveBlob(f, fileName, baseId, id));
+    }
+
+    /** Stage working file f, just written with the contents of the existing
+     *  blob ID, without hashing it again. */
+    public void trackBlob(File f, String id) {
+        long hashedAt = System.currentTimeMillis();
+        BasicFileAttributes attrs = attributes(f);
+        index.put(f.getName(), id);
+        record(f.getName(), attrs, hashedAt, id);
     }
 
     /** Write the contents of the stage area to commit. */
     public void finalCommit(Commit c) {
+        TreeMap<String, String> changes = new TreeMap<>();
         for (Map.Entry<String, String> e : index.entrySet()) {
             String key = e.getKey();
             String value = e.getValue();
             if (value.equals(Stage.REMOVAL)) {
-                c.blobs.remove(key);
+                changes.put(key, null);
             } else {
-                c.blobs.put(key, value);
+                changes.put(key, value);
             }
         }
+        c.update(changes);
 
         index.clear();
         writeStage();
     }
 
+    /** Stat data gathered under the shared lock, to be saved once the
+     *  command runs again under the exclusive lock, or null. */
+    private static HashMap<String, FileStat> pendingStats = null;
+
+    /** The stage kept in memory during a batch, or null. */
+    private static Stage cached = null;
+
+    /** Whether the cached stage has changes not yet written. */
+    private static boolean dirty = false;
+
+    /** Returns the stage of the repository. During a batch it is read once
+     *  and kept in memory. */
+    public static Stage readStage() {
+        if (cached != null) {
+            return cached;
+        }
+        Stage stage = Utils.readObject(Repository.STAGE_AREA, Stage.class);
+        if (pendingStats != null) {
+            stage.addStats(pendingStats);
+            pendingStats = null;
+        }
+        if (Batch.isActive()) {
+            cached = stage;
+        }
+        return stage;
+    }
+
     public void writeStage() {
+        statsChanged = false;
+        if (Batch.isActive()) {
+            cached = this;
+            dirty = true;
+            return;
+        }
         Utils.writeObject(Repository.STAGE_AREA, this);
     }
 
-    public static String getId(File f) {
+    /** Write the stage kept in memory, if it changed. */
+    public static void flush() {
+        if (dirty) {
+            Utils.writeObject(Repository.STAGE_AREA, cached);
+            dirty = false;
+        }
+    }
+
+    /** Drop the stage kept in memory without writing it. */
+    public static void forget() {
+        cached = null;
+        dirty = false;
+    }
+
+    /** Write the stage only if the stat cache changed since it was read. A
+     *  command holding the shared lock keeps its stat data in memory and
+     *  runs again under the exclusive lock (see RepoLock), where readStage
+     *  adds it to the stage as it is then, so no file is hashed twice. */
+    public void writeStatsIfChanged() {
+        if (!statsChanged) {
+            return;
+        }
+        if (RepoLock.isShared()) {
+            pendingStats = stats;
+            RepoLock.requireExclusive();
+        }
+        writeStage();
+    }
+
+    /** Add the entries of OTHER to the stat cache where they are newer. Each
+     *  is checked against the file when used, so any of them is safe to add. */
+    private void addStats(Map<String, FileStat> other) {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        for (Map.Entry<String, FileStat> e : other.entrySet()) {
+            FileStat old = stats.get(e.getKey());
+            if (old == null || old.hashedAt < e.getValue().hashedAt) {
+                stats.put(e.getKey(), e.getValue());
+                statsChanged = true;
+            }
+        }
+    }
+
+    /** Returns the id of working file f, or null if it does not exist. The file
+     *  is hashed only when its stat data changed since it was last hashed. */
+    public String getId(File f) {
         if (!f.exists()) {
             return null;
         }
-        byte[] contents = Utils.readContents(f);
-        return Utils.sha1(contents, f.getName());
+        String id = cachedId(f);
+        if (id == null) {
+            id = hashFile(f);
+        }
+        return id;
+    }
+
+    /** Returns the cached id of working file f if its stat data is unchanged,
+     *  otherwise null. */
+    private String cachedId(File f) {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        FileStat stat = stats.get(f.getName());
+        if (stat == null) {
+            return null;
+        }
+        if (stat.matches(attributes(f))) {
+            return stat.id;
+        }
+        return null;
+    }
+
+    /** Returns a map of the name to the id of each existing file in FILES,
+     *  hashing the files whose stat data changed on PARALLELISM threads. The
+     *  result does not depend on the order in which the hashes complete. */
+    public TreeMap<String, String> getIds(List<File> files, int parallelism) {
+        TreeMap<String, String> res = new TreeMap<>();
+        List<File> misses = new ArrayList<>();
+        for (File f : files) {
+            if (!f.exists()) {
+                continue;
+            }
+            String id = cachedId(f);
+            if (id == null) {
+                misses.add(f);
+            } else {
+                res.put(f.getName(), id);
+            }
+        }
+
+        Hashed[] hashed = new Hashed[misses.size()];
+        if (parallelism <= 1 || misses.size() <= 1) {
+            for (int i = 0; i < hashed.length; i++) {
+                hashed[i] = new Hashed(misses.get(i));
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, hashed.length).parallel()
+                        .forEach(i -> hashed[i] = new Hashed(misses.get(i)))).get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw Utils.error("Failed to hash working files: %s", excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (int i = 0; i < hashed.length; i++) {
+            String name = misses.get(i).getName();
+            record(name, hashed[i].attrs, hashed[i].hashedAt, hashed[i].id);
+            res.put(name, hashed[i].id);
+        }
+        return res;
+    }
+
+    /** The stat data and id of a working file, computed without touching the cache. */
+    private static class Hashed {
+        private final long hashedAt;
+        private final BasicFileAttributes attrs;
+        private final String id;
+
+        Hashed(File f) {
+            hashedAt = System.currentTimeMillis();
+            attrs = attributes(f);
+            id = hashContents(f);
+        }
+    }
+
+    /** Hash working file f and record its stat data in the cache. */
+    private String hashFile(File f) {
+        Hashed hashed = new Hashed(f);
+        record(f.getName(), hashed.attrs, hashed.hashedAt, hashed.id);
+        return hashed.id;
+    }
+
+    /** Record that the file fileName with attributes attrs hashed to id at
+     *  hashedAt. An index written before the stat cache has no stats yet. */
+    private void record(String fileName, BasicFileAttributes attrs, long hashedAt, String id) {
+        FileStat stat = new FileStat();
+        stat.size = attrs.size();
+        stat.mtime = attrs.lastModifiedTime().toMillis();
+        stat.fileKey = Objects.toString(attrs.fileKey(), null);
+        stat.hashedAt = hashedAt;
+        stat.id = id;
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        stats.put(fileName, stat);
+        statsChanged = true;
+    }
+
+    /** Returns the stat data of file f. */
+    private static BasicFileAttributes attributes(File f) {
+        try {
+            return Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the id of a file named fileName with the given contents. */
+    public static String getId(byte[] contents, String fileName) {
+        return Utils.sha1(contents, fileName);
+    }
+
+    /** Returns the id of the contents of working file f, read as a stream. */
+    private static String hashContents(File f) {
+        return Utils.sha1(f, f.getName());
     }
 
     @Override
@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** Counts the I/O of each command and times its phases.
+ *  The reading and writing helpers of Utils count the files they open, the
+ *  bytes they read and write, the objects they decode and the time spent
+ *  hashing; commands mark the start of each of their phases with phase. The
+ *  counters are kept always, from any thread, at the cost of an addition.
+ *
+ *  With --trace, a summary of each command is printed to standard error
+ *  after it runs. Independently, every command and phase is a JFR event
+ *  (gitlet.Command and gitlet.Phase), recorded whenever a flight recording
+ *  enables them, e.g. with -XX:StartFlightRecording.
+ *
+ *  @author fqcd
+ */
+class Trace {
+    /** Whether summaries are printed. */
+    private static boolean enabled = false;
+
+    private static final LongAdder FILES_OPENED = new LongAdder();
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder OBJECTS_READ = new LongAdder();
+    private static final LongAdder COMMITS_READ = new LongAdder();
+    private static final LongAdder HASHES = new LongAdder();
+    private static final LongAdder HASH_NANOS = new LongAdder();
+
+    /** The command running, or null. */
+    private static String command = null;
+
+    /** When the command started, in nanoseconds. */
+    private static long commandStart;
+
+    /** The hits and misses of the CommitCache when the command started. */
+    private static long cacheHits;
+    private static long cacheMisses;
+
+    /** The event of the command running. */
+    private static CommandEvent commandEvent;
+
+    /** The phase running, when it started and its event. */
+    private static String phase;
+    private static long phaseStart;
+    private static PhaseEvent phaseEvent;
+
+    /** Names and durations in nanoseconds of the finished phases of the
+     *  command. */
+    private static final List<String> PHASES = new ArrayList<>();
+    private static final List<Long> PHASE_NANOS = new ArrayList<>();
+
+    /** Print a summary of each command from now on. */
+    static void enable() {
+        enabled = true;
+    }
+
+    /** Start counting for the command NAME, in its first phase, "prepare". */
+    static void begin(String name) {
+        FILES_OPENED.reset();
+        BYTES_READ.reset();
+        BYTES_WRITTEN.reset();
+        OBJECTS_READ.reset();
+        COMMITS_READ.reset();
+        HASHES.reset();
+        HASH_NANOS.reset();
+        PHASES.clear();
+        PHASE_NANOS.clear();
+        command = name;
+        cacheHits = CommitCache.hits();
+        cacheMisses = CommitCache.misses();
+        commandEvent = new CommandEvent();
+        commandEvent.begin();
+        commandStart = System.nanoTime();
+        phase = null;
+        phase("prepare");
+    }
+
+    /** End the phase running, if any, and start the phase NAME of the command
+     *  running. */
+    static void phase(String name) {
+        if (command == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        endPhase(now);
+        phase = name;
+        phaseStart = now;
+        phaseEvent = new PhaseEvent();
+        phaseEvent.begin();
+    }
+
+    private static void endPhase(long now) {
+        if (phase == null) {
+            return;
+        }
+        PHASES.add(phase);
+        PHASE_NANOS.add(now - phaseStart);
+        phaseEvent.end();
+        if (phaseEvent.shouldCommit()) {
+            phaseEvent.command = command;
+            phaseEvent.phase = phase;
+            phaseEvent.commit();
+        }
+        phase = null;
+    }
+
+    /** End the command running, printing its summary if enabled. */
+    static void end() {
+        if (command == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        endPhase(now);
+        long hits = CommitCache.hits() - cacheHits;
+        long misses = CommitCache.misses() - cacheMisses;
+        commandEvent.end();
+        if (commandEvent.shouldCommit()) {
+            commandEvent.command = command;
+            commandEvent.filesOpened = FILES_OPENED.sum();
+            commandEvent.bytesRead = BYTES_READ.sum();
+            commandEvent.bytesWritten = BYTES_WRITTEN.sum();
+            commandEvent.objectsRead = OBJECTS_READ.sum();
+            commandEvent.commitsRead = COMMITS_READ.sum();
+            commandEvent.cacheHits = hits;
+            commandEvent.cacheMisses = misses;
+            commandEvent.hashTime = HASH_NANOS.sum();
+            commandEvent.commit();
+        }
+        if (enabled) {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("trace: %s %.1f ms%n", command, (now - commandStart) / 1e6));
+            out.append(String.format("  files opened   %d%n", FILES_OPENED.sum()));
+            out.append(String.format("  bytes read     %d%n", BYTES_READ.sum()));
+            out.append(String.format("  bytes written  %d%n", BYTES_WRITTEN.sum()));
+            out.append(String.format("  objects read   %d (%d commits)%n",
+                    OBJECTS_READ.sum(), COMMITS_READ.sum()));
+            out.append(String.format("  commit cache   %d hits, %d misses, %.1f MB%n",
+                    hits, misses, CommitCache.size() / 1048576.0));
+            out.append(String.format("  sha1           %d in %.1f ms%n",
+                    HASHES.sum(), HASH_NANOS.sum() / 1e6));
+            for (int i = 0; i < PHASES.size(); i++) {
+                out.append(String.format("  phase %-14s %.1f ms%n", PHASES.get(i),
+                        PHASE_NANOS.get(i) / 1e6));
+            }
+            System.out.flush();
+            System.err.print(out);
+        }
+        command = null;
+    }
+
+    /** Count a file opened. */
+    static void fileOpened() {
+        FILES_OPENED.increment();
+    }
+
+    /** Count N bytes read. */
+    static void read(long n) {
+        BYTES_READ.add(n);
+    }
+
+    /** Count N bytes written. */
+    static void written(long n) {
+        BYTES_WRITTEN.add(n);
+    }
+
+    /** Count an object decoded or deserialized. */
+    static void objectRead() {
+        OBJECTS_READ.increment();
+    }
+
+    /** Count a commit read from its object (rather than from memory). */
+    static void commitRead() {
+        COMMITS_READ.increment();
+    }
+
+    /** Count a hash that took NANOS nanoseconds. */
+    static void hashed(long nanos) {
+        HASHES.increment();
+        HASH_NANOS.add(nanos);
+    }
+
+    /** A gitlet command, with its I/O. */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Files Opened")
+        long filesOpened;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Objects Read")
+        long objectsRead;
+
+        @Label("Commits Read")
+        long commitsRead;
+
+        @Label("Commit Cache Hits")
+        long cacheHits;
+
+        @Label("Commit Cache Misses")
+        long cacheMisses;
+
+        @Label("Hash Time")
+        @Timespan
+        long hashTime;
+    }
+
+    /** A phase of a gitlet command. */
+    @Name("gitlet.Phase")
+    @Label("Gitlet Phase")
+    @Category("Gitlet")
+    static class PhaseEvent extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Phase")
+        String phase;
+    }
+}
@@ -0,0 +1,333 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Represents a tree object: the content-addressed listing of one directory.
+ *  A directory lists its files (blob ids) and subdirectories (tree ids). A
+ *  directory with more than MAX_ENTRIES entries is split into bucket trees by
+ *  the hash of the entry names, recursively, so that no single tree object
+ *  grows with the size of the directory. A tree is bucketed exactly when it
+ *  lists more than MAX_ENTRIES entries, so the same directory is always
+ *  stored as the same trees, however it came to be.
+ *
+ *  Trees are never modified. A commit that changes a few paths writes new
+ *  trees only along those paths and shares every other subtree by id, so the
+ *  cost of a commit depends on the size of the change, not of the repository.
+ *
+ *  @author fqcd
+ */
+class Tree {
+    /** Entry type of a file. */
+    static final byte BLOB = 'b';
+
+    /** Entry type of a subdirectory. */
+    static final byte DIR = 'd';
+
+    /** Entry type of a bucket of the same directory. */
+    static final byte BUCKET = 'k';
+
+    /** Largest number of entries a tree lists before it is split into buckets. */
+    static final int MAX_ENTRIES = 256;
+
+    /** Magic number of a tree object ("GTRE"). */
+    private static final int MAGIC = 0x47545245;
+
+    /** Version of the tree encoding. */
+    private static final int VERSION = 1;
+
+    /** An entry of a tree. */
+    static class Entry {
+        /** One of BLOB, DIR and BUCKET. */
+        final byte type;
+
+        /** The id of the blob or tree. */
+        final String id;
+
+        /** The number of directory entries under a BUCKET entry, else 1. */
+        final int count;
+
+        Entry(byte type, String id, int count) {
+            this.type = type;
+            this.id = id;
+            this.count = count;
+        }
+    }
+
+    /** Whether the entries are buckets rather than directory entries. */
+    private boolean bucketed;
+
+    /** For a bucketed tree, the bucket depth of its entries. */
+    private int level;
+
+    /** Map of the entry name (or bucket name) to the entry. */
+    private TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Returns the number of directory entries listed under this tree. */
+    private int count() {
+        int res = 0;
+        for (Entry e : entries.values()) {
+            res += e.count;
+        }
+        return res;
+    }
+
+    /** Returns the id of the root tree obtained from the root tree ROOTID (null
+     *  for an empty directory) by applying CHANGES, a map of the path to the
+     *  new blob id, or to null for a removed path. Only trees along the changed
+     *  paths are written. */
+    static String update(String rootId, SortedMap<String, String> changes) {
+        String res = updateDir(rootId, changes);
+        if (res == null) {
+            res = write(new Tree());
+        }
+        return res;
+    }
+
+    /** Returns the map of the path to the blob id of all files under ROOTID. */
+    static TreeMap<String, String> files(String rootId) {
+        TreeMap<String, String> res = new TreeMap<>();
+        collect(rootId, "", res);
+        return res;
+    }
+
+    /** Returns the blob id of the file PATH under ROOTID, or null if there is
+     *  none. Only the trees and buckets along PATH are read. */
+    static String file(String rootId, String path) {
+        String dirId = rootId;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', start)) {
+            Entry dir = lookup(dirId, path.substring(start, slash));
+            if (dir == null || dir.type != DIR) {
+                return null;
+            }
+            dirId = dir.id;
+            start = slash + 1;
+        }
+        Entry file = lookup(dirId, path.substring(start));
+        return file == null || file.type != BLOB ? null : file.id;
+    }
+
+    /** Returns the entries of the tree ID as stored: files, subdirectories
+     *  and, for a bucketed tree, buckets. */
+    static Collection<Entry> entries(String id) {
+        return read(id).entries.values();
+    }
+
+    /** Apply CHANGES, relative to the directory DIRID, and return the id of the
+     *  new directory, or null if it became empty. */
+    private static String updateDir(String dirId, SortedMap<String, String> changes) {
+        TreeMap<String, Entry> entryChanges = new TreeMap<>();
+        TreeMap<String, TreeMap<String, String>> subChanges = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                entryChanges.put(path, e.getValue() == null ? null
+                        : new Entry(BLOB, e.getValue(), 1));
+            } else {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e : subChanges.entrySet()) {
+            Entry old = dirId == null ? null : lookup(dirId, e.getKey());
+            String oldId = (old != null && old.type == DIR) ? old.id : null;
+            String newId = updateDir(oldId, e.getValue());
+            entryChanges.put(e.getKey(), newId == null ? null : new Entry(DIR, newId, 1));
+        }
+        Entry res = updateNode(dirId, 0, entryChanges);
+        return res == null ? null : res.id;
+    }
+
+    /** Apply ENTRYCHANGES (null values remove entries) to the tree NODEID, whose
+     *  entries are bucketed at LEVEL if it is bucketed. Returns a BUCKET entry
+     *  for the new tree, or null if it became empty. */
+    private static Entry updateNode(String nodeId, int level, SortedMap<String, Entry> entryChanges) {
+        Tree node = nodeId == null ? new Tree() : read(nodeId);
+        if (!node.bucketed) {
+            for (Map.Entry<String, Entry> e : entryChanges.entrySet()) {
+                if (e.getValue() == null) {
+                    node.entries.remove(e.getKey());
+                } else {
+                    node.entries.put(e.getKey(), e.getValue());
+                }
+            }
+            if (node.entries.isEmpty()) {
+                return null;
+            }
+            if (node.entries.size() > MAX_ENTRIES) {
+                return writeBucketed(node.entries, level);
+            }
+            return new Entry(BUCKET, write(node), node.entries.size());
+        }
+
+        TreeMap<String, TreeMap<String, Entry>> byBucket = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entryChanges.entrySet()) {
+            byBucket.computeIfAbsent(bucketOf(e.getKey(), node.level), k -> new TreeMap<>())
+                    .put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, TreeMap<String, Entry>> e : byBucket.entrySet()) {
+            Entry old = node.entries.get(e.getKey());
+            Entry child = updateNode(old == null ? null : old.id, node.level + 1, e.getValue());
+            if (child == null) {
+                node.entries.remove(e.getKey());
+            } else {
+                node.entries.put(e.getKey(), child);
+            }
+        }
+        int count = node.count();
+        if (count == 0) {
+            return null;
+        }
+        // Merge back at the same count a tree splits at, so the layout
+        // depends on the entries alone and not on how they came about.
+        if (count <= MAX_ENTRIES) {
+            Tree leaf = new Tree();
+            collectEntries(node, leaf.entries);
+            return new Entry(BUCKET, write(leaf), count);
+        }
+        return new Entry(BUCKET, write(node), count);
+    }
+
+    /** Write ENTRIES as a tree bucketed at LEVEL and return a BUCKET entry for it. */
+    private static Entry writeBucketed(SortedMap<String, Entry> entries, int level) {
+        TreeMap<String, TreeMap<String, Entry>> byBucket = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            byBucket.computeIfAbsent(bucketOf(e.getKey(), level), k -> new TreeMap<>())
+                    .put(e.getKey(), e.getValue());
+        }
+        Tree node = new Tree();
+        node.bucketed = true;
+        node.level = level;
+        for (Map.Entry<String, TreeMap<String, Entry>> e : byBucket.entrySet()) {
+            if (e.getValue().size() > MAX_ENTRIES) {
+                node.entries.put(e.getKey(), writeBucketed(e.getValue(), level + 1));
+            } else {
+                Tree leaf = new Tree();
+                leaf.entries.putAll(e.getValue());
+                node.entries.put(e.getKey(), new Entry(BUCKET, write(leaf), e.getValue().size()));
+            }
+        }
+        return new Entry(BUCKET, write(node), entries.size());
+    }
+
+    /** Returns the entry named NAME of the directory DIRID, or null. */
+    private static Entry lookup(String dirId, String name) {
+        Tree node = read(dirId);
+        while (node.bucketed) {
+            Entry bucket = node.entries.get(bucketOf(name, node.level));
+            if (bucket == null) {
+                return null;
+            }
+            node = read(bucket.id);
+        }
+        return node.entries.get(name);
+    }
+
+    /** Add the directory entries listed under NODE, through its buckets, to RES. */
+    private static void collectEntries(Tree node, Map<String, Entry> res) {
+        if (!node.bucketed) {
+            res.putAll(node.entries);
+            return;
+        }
+        for (Entry e : node.entries.values()) {
+            collectEntries(read(e.id), res);
+        }
+    }
+
+    /** Add the files under the directory DIRID to RES, prefixing paths with PREFIX. */
+    private static void collect(String dirId, String prefix, Map<String, String> res) {
+        TreeMap<String, Entry> dir = new TreeMap<>();
+        collectEntries(read(dirId), dir);
+        for (Map.Entry<String, Entry> e : dir.entrySet()) {
+            if (e.getValue().type == DIR) {
+                collect(e.getValue().id, prefix + e.getKey() + "/", res);
+            } else {
+                res.put(prefix + e.getKey(), e.getValue().id);
+            }
+        }
+    }
+
+    /** Returns the bucket of NAME at LEVEL: two hex digits of the hash of NAME. */
+    static String bucketOf(String name, int level) {
+        return sha1(name).substring(2 * level, 2 * level + 2);
+    }
+
+    /** Store TREE and return its id. */
+    private static String write(Tree tree) {
+        byte[] contents = tree.encode();
+        String id = sha1(contents, "tree");
+        if (!hasObject(id, Repository.TREE_DIR)) {
+            writeStored(looseFile(id, Repository.TREE_DIR), contents);
+        }
+        return id;
+    }
+
+    /** Returns the tree with the given id. */
+    static Tree read(String id) {
+        byte[] contents = loadObject(id, Repository.TREE_DIR);
+        if (contents == null) {
+            throw error("Missing tree %s", id);
+        }
+        return decode(contents);
+    }
+
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(bucketed ? 1 : 0);
+            out.writeByte(level);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeByte(entry.type);
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(Pack.hexToBytes(entry.id));
+                if (entry.type == BUCKET) {
+                    out.writeInt(entry.count);
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+    }
+
+    private static Tree decode(byte[] contents) {
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        if (in.getInt() != MAGIC || in.get() != VERSION) {
+            throw error("Unknown tree encoding");
+        }
+        Tree tree = new Tree();
+        tree.bucketed = in.get() != 0;
+        tree.level = in.get();
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            byte type = in.get();
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+            byte[] id = new byte[UID_LENGTH / 2];
+            in.get(id);
+            int count = type == BUCKET ? in.getInt() : 1;
+            tree.entries.put(new String(name, StandardCharsets.UTF_8),
+                    new Entry(type, Pack.bytesToHex(id), count));
+        }
+        return tree;
+    }
+}
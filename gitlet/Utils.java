@@ -1,22 +1,32 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /** Assorted utilities.
  *
@@ -35,6 +45,7 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = System.nanoTime();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -53,6 +64,8 @@ class Utils {
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Trace.hashed(System.nanoTime() - start);
         }
     }
 
@@ -62,6 +75,63 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE followed by SUFFIX, the
+     *  same as sha1(readContents(FILE), SUFFIX), reading FILE through a buffer
+     *  of fixed size. */
+    static String sha1(File file, String suffix) {
+        long start = System.nanoTime();
+        MessageDigest md = newSha1();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Trace.fileOpened();
+            Trace.read(copy(in, OutputStream.nullOutputStream(), md));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        md.update(suffix.getBytes(StandardCharsets.UTF_8));
+        String res = hex(md);
+        Trace.hashed(System.nanoTime() - start);
+        return res;
+    }
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the digest of MD as a hexadecimal numeral. */
+    static String hex(MessageDigest md) {
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /* STREAMING */
+
+    /** Size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Copy IN to OUT through a buffer of fixed size, updating MD (if not
+     *  null) with the bytes copied. Returns the number of bytes copied. */
+    static long copy(InputStream in, OutputStream out, MessageDigest md) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            if (md != null) {
+                md.update(buf, 0, n);
+            }
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -97,7 +167,10 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Trace.fileOpened();
+            Trace.read(contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -122,12 +195,12 @@ class Utils {
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            Trace.fileOpened();
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Trace.written(bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -142,7 +215,10 @@ class Utils {
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
+            Trace.fileOpened();
+            Trace.read(file.length());
             T result = expectedClass.cast(in.readObject());
+            Trace.objectRead();
             in.close();
             return result;
         } catch (IOException | ClassCastException
@@ -151,9 +227,37 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE. The object is written to a temporary file that
+     *  then replaces FILE, so readers see either the old or the new object,
+     *  never part of one. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        File tmp = tempFile(file.getParentFile(), file.getName());
+        try {
+            writeContents(tmp, serialize(obj));
+            replaceFile(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Returns a new empty file in DIR, named after PREFIX, to write a file
+     *  that will replace another with replaceFile. */
+    static File tempFile(File dir, String prefix) {
+        try {
+            return File.createTempFile(prefix + "-", ".tmp", dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Atomically replace TARGET by TMP. */
+    static void replaceFile(File tmp, File target) {
+        try {
+            Files.move(tmp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /* DIRECTORIES */
@@ -219,6 +323,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from CONTENTS, casting it to
+     *  EXPECTEDCLASS. Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Split the uid into the two-size prefix and the remain. */
     static String[] splitUid(String uid) {
         if (uid.length() > UID_LENGTH || uid.length() < 3) {
@@ -232,67 +352,379 @@ class Utils {
 
     /** Save the commit under objects with the given uid. */
     static void saveCommit(Commit commit, String uid) {
-        String[] sUid = splitUid(uid);
-        File subDir = join(Repository.COMMIT_DIR, sUid[0]);
-        if (!subDir.exists()) {
-            if (!subDir.mkdirs()) {
-                throw error("saveCommit: failed to create %s", sUid[0]);
-            }
-        }
-        File o = join(subDir, sUid[1]);
-        writeObject(o, commit);
+        writeStored(looseFile(uid, Repository.COMMIT_DIR), commit.encode());
     }
 
     /** Save the normal file under objects.*/
     static void saveBlob(byte[] contents, String uid) {
-        String[] sUid = splitUid(uid);
-        File subDir = join(Repository.BLOB_DIR, sUid[0]);
-        if (!subDir.exists()) {
-            if (!subDir.mkdirs()) {
-                throw error("saveCommit: failed to create %s", sUid[0]);
+        if (hasObject(uid, Repository.BLOB_DIR)) {
+            return;
+        }
+        writeStored(looseFile(uid, Repository.BLOB_DIR), contents);
+    }
+
+    /** Save the working file SOURCE, named NAME, under objects, and return its
+     *  uid. If BASEID, the blob of an earlier version of the file, is not null
+     *  and SOURCE is small enough to read at once but too small to chunk,
+     *  SOURCE is stored as a delta against BASEID when that is much smaller
+     *  (see Delta). Otherwise it is streamed through a buffer of fixed size.
+     *  Either way the uid is computed from the bytes actually stored, so it is
+     *  right even if SOURCE changes while it is read. */
+    static String saveBlob(File source, String name, String baseId) {
+        return saveBlob(source, name, baseId, null);
+    }
+
+    /** Save the working file SOURCE, named NAME, as saveBlob(SOURCE, NAME,
+     *  BASEID) does, given UID, the uid SOURCE just hashed to (or null). If
+     *  the blob UID is stored already, SOURCE is not read at all. */
+    static String saveBlob(File source, String name, String baseId, String uid) {
+        if (uid != null && hasObject(uid, Repository.BLOB_DIR)) {
+            return uid;
+        }
+        long size = source.length();
+        if (baseId != null && size >= Delta.MIN_SIZE && size <= Config.deltaMaxSize()
+                && Config.deltaDepth() > 0 && !Chunker.appliesTo(size)) {
+            return saveBlob(readContents(source), name, baseId);
+        }
+        return saveBlob(source, name);
+    }
+
+    /** Save CONTENTS, the contents of a file named NAME, under objects, and
+     *  return their uid, storing them in chunks if they are large enough (see
+     *  Chunker), or else as a delta against the blob BASEID (if not null) when
+     *  that is much smaller (see Delta). */
+    static String saveBlob(byte[] contents, String name, String baseId) {
+        if (Chunker.appliesTo(contents.length)) {
+            try {
+                return Chunker.save(new ByteArrayInputStream(contents), name);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
         }
-        File o = join(subDir, sUid[1]);
-        writeContents(o, contents);
+        String uid = sha1(contents, name);
+        if (!hasObject(uid, Repository.BLOB_DIR) && !Delta.save(contents, uid, baseId)) {
+            writeStored(looseFile(uid, Repository.BLOB_DIR), contents);
+        }
+        return uid;
     }
 
-    /** Read the commit object according to the given uid. */
-    static Commit readCommit(String uid) {
-        File f = getObjectFile(uid, Repository.COMMIT_DIR);
-        if (f == null) {
-            return null;
+    /** Save the working file SOURCE, named NAME, under objects, streaming it
+     *  through a buffer of fixed size, and return its uid. A file large enough
+     *  is stored in chunks (see Chunker). The uid is computed from the bytes
+     *  actually stored, so it is right even if SOURCE changes while it is
+     *  read. */
+    static String saveBlob(File source, String name) {
+        if (Chunker.appliesTo(source.length())) {
+            try (InputStream in = Files.newInputStream(source.toPath())) {
+                Trace.fileOpened();
+                return Chunker.save(in, name);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        File tmp = null;
+        try {
+            tmp = tempFile(Repository.OBJECT_DIR, "blob");
+            MessageDigest md = newSha1();
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))) {
+                encodeObject(out, in, Config.format(), Config.compression(), md);
+            }
+            Trace.fileOpened();
+            Trace.fileOpened();
+            Trace.read(source.length());
+            Trace.written(tmp.length());
+            md.update(name.getBytes(StandardCharsets.UTF_8));
+            String uid = hex(md);
+            if (hasObject(uid, Repository.BLOB_DIR)) {
+                tmp.delete();
+            } else {
+                replaceFile(tmp, looseFile(uid, Repository.BLOB_DIR));
+            }
+            return uid;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return readObject(f, Commit.class);
     }
 
-    /** Returns the corresponding file in the objects folder according to the given uid.
-     * Support for shorthand uid. */
-    static File getObjectFile(String uid, File dir) {
+    /** Write the contents of the blob with the given uid to FILE, streaming
+     *  it through a buffer of fixed size. Returns the number of bytes written. */
+    static long writeBlobTo(String uid, File file) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (InputStream in = openObject(uid, Repository.BLOB_DIR);
+             OutputStream out = Files.newOutputStream(file.toPath())) {
+            if (in == null) {
+                throw error("Missing blob %s", uid);
+            }
+            Trace.fileOpened();
+            long n = copy(in, out, null);
+            Trace.written(n);
+            return n;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the loose file of the object with the full uid in the objects
+     *  folder DIR, creating its fanout directory if needed. Another thread may
+     *  create the same directory at the same time, which is not an error. */
+    static File looseFile(String uid, File dir) {
         String[] sUid = splitUid(uid);
         File subDir = join(dir, sUid[0]);
-        if (!subDir.exists() || !subDir.isDirectory()) {
-            return null;
+        if (!subDir.isDirectory()) {
+            if (!subDir.mkdirs() && !subDir.isDirectory()) {
+                throw error("looseFile: failed to create %s", sUid[0]);
+            }
+        }
+        return join(subDir, sUid[1]);
+    }
+
+    /* OBJECT ENCODING */
+
+    /** Encoding byte of an object stored as is. */
+    static final int RAW = 0;
+
+    /** Encoding byte of an object stored as a deflate stream. */
+    static final int DEFLATED = 1;
+
+    /** Encoding byte of a blob stored as a delta against another blob; see
+     *  Delta. */
+    static final int DELTA = 2;
+
+    /** Encoding byte of a blob stored as a list of chunks; see Chunker. */
+    static final int CHUNKED = 3;
+
+    /** Write CONTENTS to the object file FILE in the object format of the
+     *  repository, compressed with its configured level. */
+    static void writeStored(File file, byte[] contents) {
+        writeStored(file, contents, Config.format());
+    }
+
+    /** Write CONTENTS to the object file FILE in object format FORMAT. */
+    static void writeStored(File file, byte[] contents, int format) {
+        File tmp = tempFile(Repository.OBJECT_DIR, "object");
+        try {
+            try (OutputStream out =
+                     new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))) {
+                encodeObject(out, contents, format, Config.compression());
+            }
+            Trace.fileOpened();
+            Trace.written(tmp.length());
+            replaceFile(tmp, file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            tmp.delete();
         }
+    }
 
-        File f = null;
+    /** Write CONTENTS to OUT as a stored object of object format FORMAT. Objects
+     *  of format 0 are written raw; otherwise an encoding byte is written first
+     *  and the contents are deflated with LEVEL unless LEVEL is 0. */
+    static void encodeObject(OutputStream out, byte[] contents, int format,
+                             int level) throws IOException {
+        encodeObject(out, new ByteArrayInputStream(contents), format, level, null);
+    }
 
-        if (sUid[1].length() == UID_LENGTH - 2) {
-            f = join(subDir, sUid[1]);
+    /** Copy the contents read from IN to OUT as a stored object of object format
+     *  FORMAT, as for encodeObject(OutputStream, byte[], int, int), updating MD
+     *  (if not null) with the contents as they pass. */
+    static void encodeObject(OutputStream out, InputStream in, int format,
+                             int level, MessageDigest md) throws IOException {
+        if (format == 0) {
+            copy(in, out, md);
+        } else if (level == 0) {
+            out.write(RAW);
+            copy(in, out, md);
         } else {
-            List<String> filenames = plainFilenamesIn(subDir);
-            for (String name : filenames) {
-                if (name.indexOf(sUid[1]) == 0) {
-                    f = join(subDir, name);
-                    break;
-                }
+            out.write(DEFLATED);
+            Deflater deflater = new Deflater(level);
+            try {
+                DeflaterOutputStream z = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                copy(in, z, md);
+                z.finish();
+            } finally {
+                deflater.end();
             }
         }
+    }
+
+    /** Returns a stream of the contents of the stored object read from IN,
+     *  which is in object format FORMAT. */
+    static InputStream decodeObject(InputStream in, int format) throws IOException {
+        if (format == 0) {
+            return in;
+        }
+        int encoding = in.read();
+        switch (encoding) {
+            case RAW:
+                return in;
+            case DEFLATED:
+                return new InflaterInputStream(in);
+            case DELTA:
+                return Delta.decode(in);
+            case CHUNKED:
+                return Chunker.decode(in);
+            default:
+                in.close();
+                throw new IOException("unknown object encoding " + encoding);
+        }
+    }
 
-        if (f == null || !f.exists()) {
+    /** Read the commit object according to the given uid, which may be
+     *  shorthand. The commit comes from the CommitCache if it was read
+     *  before; a shorthand uid is resolved first. */
+    static Commit readCommit(String uid) {
+        String fullId = uid.length() == UID_LENGTH ? uid.toLowerCase()
+            : resolveId(uid, Repository.COMMIT_DIR);
+        if (fullId == null) {
             return null;
-        } else {
-            return f;
         }
+        Commit commit = CommitCache.get(fullId);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] contents = loadObject(fullId, Repository.COMMIT_DIR);
+        if (contents == null) {
+            return null;
+        }
+        commit = decodeCommit(contents, fullId);
+        Trace.commitRead();
+        CommitCache.put(fullId, commit);
+        return commit;
+    }
+
+    /** Returns the commit with the full uid stored as CONTENTS, which is either
+     *  in the binary encoding or Java-serialized by an older gitlet. */
+    static Commit decodeCommit(byte[] contents, String uid) {
+        if (Commit.isEncoded(contents)) {
+            return Commit.decode(contents, uid);
+        }
+        return deserialize(contents, Commit.class);
+    }
+
+    /** Read the contents of the blob according to the given uid. */
+    static byte[] readBlob(String uid) {
+        return loadObject(uid, Repository.BLOB_DIR);
+    }
+
+    /** Returns the contents of the object with the given uid in the objects
+     *  folder DIR, whether it is loose or packed, or null if there is no such
+     *  object. Support for shorthand uid. */
+    static byte[] loadObject(String uid, File dir) {
+        try (InputStream obj = openObject(uid, dir)) {
+            return obj == null ? null : obj.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the contents of the object with the given uid in
+     *  the objects folder DIR, whether it is loose or packed, or null if there
+     *  is no such object. Support for shorthand uid. */
+    static InputStream openObject(String uid, File dir) {
+        String fullId = resolveId(uid, dir);
+        if (fullId == null) {
+            return null;
+        }
+        try {
+            InputStream in = decodeObject(openStored(fullId, dir), Config.format());
+            Trace.objectRead();
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the stored form of the object with the full uid in
+     *  the objects folder DIR, as it is in its pack or loose file, or null if
+     *  there is no such object. */
+    static InputStream openStored(String uid, File dir) throws IOException {
+        InputStream in = Pack.openFromPacks(uid, Pack.kindOf(dir));
+        if (in == null) {
+            File f = getObjectFile(uid, dir);
+            if (f == null) {
+                return null;
+            }
+            in = new BufferedInputStream(Files.newInputStream(f.toPath()), BUFFER_SIZE);
+            Trace.fileOpened();
+            Trace.read(f.length());
+        }
+        return in;
+    }
+
+    /** Returns the full uid of the object in the objects folder DIR whose uid
+     *  starts with the given uid, or null if there is none. A shorthand uid
+     *  that matches several objects is an error. Objects are found through the
+     *  pack indexes and their fanout directory and commits through the sorted
+     *  commit index as well, which may not list every commit stored, so all of
+     *  their matches count. */
+    static String resolveId(String uid, File dir) {
+        splitUid(uid);
+        uid = uid.toLowerCase();
+        if (!uid.matches("[0-9a-f]+")) {
+            return null;
+        }
+        if (uid.length() == UID_LENGTH) {
+            if (Pack.inPacks(uid, Pack.kindOf(dir)) || getObjectFile(uid, dir) != null) {
+                return uid;
+            }
+            return null;
+        }
+        TreeSet<String> found = new TreeSet<>(Pack.matchAll(uid, Pack.kindOf(dir)));
+        found.addAll(looseMatches(uid, dir));
+        if (dir.equals(Repository.COMMIT_DIR)) {
+            found.addAll(CommitIndex.matchAll(uid));
+        }
+        List<String> matches = new ArrayList<>(found);
+        if (matches.size() > 1) {
+            throw error("Ambiguous id %s: it matches %d objects.", uid, matches.size());
+        }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /** Returns the uids of the loose objects in DIR that start with the given
+     *  shorthand uid. */
+    private static List<String> looseMatches(String uid, File dir) {
+        String[] sUid = splitUid(uid);
+        List<String> res = new ArrayList<>();
+        List<String> names = plainFilenamesIn(join(dir, sUid[0]));
+        if (names == null) {
+            return res;
+        }
+        for (String name : names) {
+            if (name.startsWith(sUid[1])) {
+                res.add(sUid[0] + name);
+            }
+        }
+        return res;
+    }
+
+    /** Returns the uids of all objects in the objects folder DIR, loose or
+     *  packed, in lexicographic order. */
+    static List<String> objectIds(File dir) {
+        TreeSet<String> ids = new TreeSet<>(Pack.looseIds(dir));
+        Pack.allIds(Pack.kindOf(dir), ids);
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns true if the object with the full uid exists in DIR. */
+    static boolean hasObject(String uid, File dir) {
+        return getObjectFile(uid, dir) != null || Pack.inPacks(uid, Pack.kindOf(dir));
+    }
+
+    /** Returns the loose file of the object with the given full uid in the
+     *  objects folder DIR, or null if it is not stored loose. Shorthand uids
+     *  are resolved with resolveId. */
+    static File getObjectFile(String uid, File dir) {
+        String[] sUid = splitUid(uid);
+        File f = join(dir, sUid[0], sUid[1]);
+        return f.isFile() ? f : null;
     }
 
 
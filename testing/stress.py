@@ -0,0 +1,129 @@
+#!/usr/bin/env python3
+"""Stress test of concurrent gitlet processes sharing one repository.
+
+Usage: python3 stress.py [--writers N] [--readers N] [--iterations N]
+                         [--classpath PATH] [--keep]
+
+Starts WRITERS processes that each make ITERATIONS commits, one file per
+commit, while READERS processes run log, status, global-log and find in a
+loop, all against the same repository. Each commit is an `add` and a
+`commit` in one `batch`, so the pair runs under one exclusive lock.
+
+The test fails if any process fails or prints an exception, if a reader sees
+a malformed log, or if, at the end, the log does not contain exactly one
+commit per write, or a committed file is missing or has the wrong contents.
+
+The classpath defaults to the parent directory of this script, which is
+where `make` puts the compiled classes.
+"""
+
+import argparse
+import os
+import shutil
+import subprocess
+import sys
+import tempfile
+import threading
+
+def gitlet(classpath, repo, *args, stdin=None):
+    return subprocess.run(["java", "-cp", classpath, "gitlet.Main"] + list(args),
+                          cwd=repo, input=stdin, capture_output=True, text=True)
+
+def check(result, what, failures):
+    output = result.stdout + result.stderr
+    if result.returncode != 0 or "Exception" in output:
+        failures.append("{} failed ({}):\n{}".format(what, result.returncode, output))
+        return False
+    return True
+
+def writer(classpath, repo, w, iterations, failures):
+    for i in range(iterations):
+        name = "w{}_{}.txt".format(w, i)
+        with open(os.path.join(repo, name), "w") as f:
+            f.write("writer {} iteration {}\n".format(w, i))
+        script = 'add {}\ncommit "writer {} commit {}"\n'.format(name, w, i)
+        result = gitlet(classpath, repo, "batch", stdin=script)
+        if check(result, "writer {} commit {}".format(w, i), failures) \
+           and result.stdout.strip():
+            failures.append("writer {} commit {} printed:\n{}"
+                            .format(w, i, result.stdout))
+
+def reader(classpath, repo, r, stop, failures):
+    commands = [["log"], ["status"], ["global-log"], ["find", "writer"]]
+    n = 0
+    while not stop.is_set():
+        command = commands[(r + n) % len(commands)]
+        result = gitlet(classpath, repo, *command)
+        if check(result, "reader {} {}".format(r, " ".join(command)), failures) \
+           and command[0] in ("log", "global-log") \
+           and not result.stdout.startswith("===\ncommit "):
+            failures.append("reader {} saw a malformed {}:\n{}"
+                            .format(r, command[0], result.stdout[:200]))
+        n += 1
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+    parser.add_argument("--writers", type=int, default=4)
+    parser.add_argument("--readers", type=int, default=4)
+    parser.add_argument("--iterations", type=int, default=10)
+    parser.add_argument("--classpath",
+                        default=os.path.dirname(os.path.dirname(os.path.abspath(__file__))))
+    parser.add_argument("--keep", action="store_true",
+                        help="keep the repository for inspection")
+    args = parser.parse_args()
+
+    repo = tempfile.mkdtemp(prefix="gitlet-stress-")
+    failures = []
+    try:
+        if not check(gitlet(args.classpath, repo, "init"), "init", failures):
+            print("\n".join(failures))
+            return 1
+
+        stop = threading.Event()
+        readers = [threading.Thread(target=reader,
+                                    args=(args.classpath, repo, r, stop, failures))
+                   for r in range(args.readers)]
+        writers = [threading.Thread(target=writer,
+                                    args=(args.classpath, repo, w, args.iterations, failures))
+                   for w in range(args.writers)]
+        for t in readers + writers:
+            t.start()
+        for t in writers:
+            t.join()
+        stop.set()
+        for t in readers:
+            t.join()
+
+        expected = 1 + args.writers * args.iterations
+        for command in ("log", "global-log"):
+            result = gitlet(args.classpath, repo, command)
+            count = result.stdout.count("===\ncommit ")
+            if count != expected:
+                failures.append("{} shows {} commits, expected {}"
+                                .format(command, count, expected))
+        for w in range(args.writers):
+            for i in range(args.iterations):
+                name = "w{}_{}.txt".format(w, i)
+                os.remove(os.path.join(repo, name))
+                gitlet(args.classpath, repo, "checkout", "--", name)
+                path = os.path.join(repo, name)
+                contents = open(path).read() if os.path.exists(path) else None
+                if contents != "writer {} iteration {}\n".format(w, i):
+                    failures.append("{} has wrong contents after checkout: {!r}"
+                                    .format(name, contents))
+    finally:
+        if args.keep:
+            print("repository kept in", repo)
+        else:
+            shutil.rmtree(repo, ignore_errors=True)
+
+    if failures:
+        print("\n".join(failures[:20]))
+        print("{} failures.".format(len(failures)))
+        return 1
+    print("{} writers x {} commits with {} readers: OK."
+          .format(args.writers, args.iterations, args.readers))
+    return 0
+
+if __name__ == "__main__":
+    sys.exit(main())